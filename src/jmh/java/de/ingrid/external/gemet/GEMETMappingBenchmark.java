@@ -0,0 +1,152 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+import de.ingrid.external.om.RelatedTerm;
+import de.ingrid.external.om.Term;
+
+/**
+ * Measures parsing of GEMET responses and mapping to API terms without any
+ * requests: JSON responses of the given number of concepts (parsed with
+ * GEMETJSONReader and, for comparison, the json-simple parser) and the RDF
+ * of a concept (GEMETMapper / RDFUtils).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GEMETMappingBenchmark {
+
+    static final String GEMET = "http://www.eionet.europa.eu/gemet/";
+
+    static final String[] KEYWORDS = new String[] { "Wasser", "Schutz" };
+
+    /** number of concepts in the JSON response */
+    @Param({ "10", "1000" })
+    public int size;
+
+    GEMETMapper mapper = new GEMETMapper();
+
+    byte[] response;
+
+    List<JSONArray> concepts;
+
+    JSONArray relatedConcepts;
+
+    Resource rdfConcept;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        StringBuilder json = new StringBuilder( "[" );
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                json.append( ',' );
+            }
+            // like the service: definition and further fields which are not
+            // mapped
+            json.append( "{\"preferredLabel\":{\"string\":\"Wasserschutz " ).append( i ).append( "\",\"language\":\"de\"}," );
+            json.append( "\"definition\":{\"string\":\"Maßnahmen zum Schutz der Gewässer vor Verunreinigung, Nummer " ).append( i )
+                    .append( ".\",\"language\":\"de\"}," );
+            json.append( "\"uri\":\"" ).append( GEMET ).append( "concept/" ).append( 10000 + i ).append( "\"," );
+            json.append( "\"thesaurus\":\"" ).append( GEMET ).append( "concept/\"}" );
+        }
+        json.append( "]" );
+        response = json.toString().getBytes( StandardCharsets.UTF_8 );
+
+        concepts = new ArrayList<JSONArray>();
+        concepts.add( (JSONArray) GEMETJSONReader.read( new ByteArrayInputStream( response ) ) );
+        relatedConcepts = concepts.get( 0 );
+
+        Model model = ModelFactory.createDefaultModel();
+        try (InputStream in = GEMETMappingBenchmark.class.getResourceAsStream( "/gemet-snapshot.rdf" )) {
+            model.read( in, null );
+        }
+        rdfConcept = model.getResource( GEMET + "concept/9242" );
+    }
+
+    @Benchmark
+    public Object parseJson() throws Exception {
+        return GEMETJSONReader.read( new ByteArrayInputStream( response ) );
+    }
+
+    @Benchmark
+    public Object parseJsonSimple() throws Exception {
+        return new JSONParser().parse( new InputStreamReader( new ByteArrayInputStream( response ), StandardCharsets.UTF_8 ) );
+    }
+
+    @Benchmark
+    public List<Term> mapToTerms() {
+        return mapper.mapToTerms( concepts );
+    }
+
+    @Benchmark
+    public List<Term> mapToTermsWithKeywordsFilter() {
+        return mapper.mapToTermsWithKeywordsFilter( concepts, KEYWORDS, Locale.GERMAN );
+    }
+
+    @Benchmark
+    public List<RelatedTerm> mapToRelatedTerms() {
+        return mapper.mapToRelatedTerms( relatedConcepts, ConceptRelation.RELATED );
+    }
+
+    @Benchmark
+    public Term mapRdfToTerm() {
+        return mapper.mapToTerm( rdfConcept, "de", "fr" );
+    }
+
+    @Benchmark
+    public String getRdfName() {
+        // falls back to alternate label, so all label properties are looked up
+        return RDFUtils.getName( rdfConcept, "it" );
+    }
+}
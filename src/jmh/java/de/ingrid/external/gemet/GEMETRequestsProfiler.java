@@ -0,0 +1,62 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * JMH profiler reporting the number of requests to GEMET per benchmark call
+ * ("upstreamRequestsPerCall"), counted by {@link GEMETStubServer}. Add with
+ * "-prof de.ingrid.external.gemet.GEMETRequestsProfiler".
+ */
+public class GEMETRequestsProfiler implements InternalProfiler {
+
+    private long requestsBefore;
+
+    @Override
+    public String getDescription() {
+        return "Requests to the GEMET stub server per call";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        requestsBefore = GEMETStubServer.getTotalRequestCount();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        long requests = GEMETStubServer.getTotalRequestCount() - requestsBefore;
+        long calls = result.getMetadata().getAllOps();
+        double requestsPerCall = calls == 0 ? 0 : (double) requests / calls;
+        return Collections.singletonList( new ScalarResult( "upstreamRequestsPerCall", requestsPerCall, "#/op", AggregationPolicy.AVG ) );
+    }
+}
@@ -0,0 +1,199 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.PropertyResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ingrid.external.ThesaurusService.MatchingType;
+import de.ingrid.external.om.RelatedTerm;
+import de.ingrid.external.om.Term;
+import de.ingrid.external.om.TreeTerm;
+
+/**
+ * Measures every ThesaurusService method of GEMETService against the
+ * {@link GEMETStubServer} replaying recorded GEMET responses with the given
+ * latency. Run with {@link GEMETRequestsProfiler} to report the number of
+ * requests to GEMET per call besides the time per call, so the fan-out of a
+ * method is visible.
+ * <p>
+ * Backends: "remote" requests GEMET for everything, "graph" additionally
+ * crawls the hierarchy on startup, "snapshot" answers from the local RDF
+ * snapshot without any requests.
+ * <p>
+ * Pass "-Dgemet.stub.record=&lt;fixture file&gt;" to record missing responses
+ * from GEMET into the given file instead of replaying the fixtures.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GEMETServiceBenchmark {
+
+    static final String GEMET = "http://www.eionet.europa.eu/gemet/";
+
+    static final String GROUP = GEMET + "group/14980";
+
+    static final String THEMA = GEMET + "concept/14848";
+
+    static final String OFF_SITE = GEMET + "concept/5825";
+
+    static final String TEXT = "Das Wasser im Wald wird vor Ort (in-situ) und Off-Site untersucht. " +
+            "Wasserschutz ist das Thema, Luftverschmutzung und Waldsterben sind nicht Teil der Untersuchung.";
+
+    @Param({ "remote", "graph", "snapshot" })
+    public String backend;
+
+    @Param({ "false", "true" })
+    public boolean cache;
+
+    @Param({ "20" })
+    public long latencyMillis;
+
+    /** request terms as RDF instead of JSON, only used by getTerm */
+    @Param({ "false" })
+    public boolean rdf;
+
+    GEMETStubServer stub;
+
+    GEMETService service;
+
+    Path snapshotFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stub = new GEMETStubServer();
+        String recordFile = System.getProperty( "gemet.stub.record" );
+        if (recordFile != null) {
+            // fetch responses missing in the given file from GEMET
+            stub.record( Paths.get( recordFile ) );
+        } else {
+            stub.loadFixtures( "/gemet-fixtures.tsv" );
+        }
+        // all requests of the client are answered by the stub
+        stub.useAsProxy();
+
+        String props = "service.url=" + GEMET.substring( 0, GEMET.length() - 1 ) + "\n" +
+                "service.request.rdf=" + rdf + "\n" +
+                "service.analyzeMaxWords=100\n" +
+                "service.ignorePassedMatchingType=false\n" +
+                "service.alternateLanguage=\n" +
+                "service.cache.enabled=" + cache + "\n" +
+                "service.backend=" + ("snapshot".equals( backend ) ? "snapshot" : "remote") + "\n" +
+                "service.graph.enabled=" + "graph".equals( backend ) + "\n";
+        if ("snapshot".equals( backend )) {
+            snapshotFile = Files.createTempFile( "gemet-benchmark", ".snapshot" );
+            Files.delete( snapshotFile );
+            Path rdfFile = Paths.get( GEMETServiceBenchmark.class.getResource( "/gemet-snapshot.rdf" ).toURI() );
+            props += "service.snapshot.file=" + snapshotFile.toString().replace( '\\', '/' ) + "\n" +
+                    "service.snapshot.rdf=" + rdfFile.toString().replace( '\\', '/' ) + "\n";
+        }
+
+        service = new GEMETService();
+        service.init( new PropertyResourceBundle( new StringReader( props ) ) );
+
+        if ("graph".equals( backend )) {
+            // crawling the hierarchy is not part of the measurement
+            long deadline = System.currentTimeMillis() + 60000;
+            while (service.conceptGraph == null) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException( "Concept graph not loaded from stub" );
+                }
+                Thread.sleep( 10 );
+            }
+        }
+
+        // latency only for measured requests
+        stub.setLatencyMillis( latencyMillis );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        service.destroy();
+        stub.close();
+        if (snapshotFile != null) {
+            Files.deleteIfExists( snapshotFile );
+        }
+    }
+
+    @Benchmark
+    public Term getTerm() {
+        return service.getTerm( THEMA, Locale.GERMAN );
+    }
+
+    @Benchmark
+    public Term[] findTermsFromQueryTerm() {
+        return service.findTermsFromQueryTerm( "Wasser Schutz", MatchingType.CONTAINS, true, Locale.GERMAN );
+    }
+
+    @Benchmark
+    public Term[] getSimilarTermsFromNames() {
+        return service.getSimilarTermsFromNames( new String[] { "Wasser", "Schutz" }, true, Locale.GERMAN );
+    }
+
+    @Benchmark
+    public Term[] getTermsFromText() {
+        return service.getTermsFromText( TEXT, 100, true, Locale.GERMAN );
+    }
+
+    @Benchmark
+    public TreeTerm[] getHierarchyTopLevel() {
+        return service.getHierarchyNextLevel( null, Locale.GERMAN );
+    }
+
+    @Benchmark
+    public TreeTerm[] getHierarchyNextLevel() {
+        return service.getHierarchyNextLevel( GROUP, Locale.GERMAN );
+    }
+
+    @Benchmark
+    public TreeTerm getHierarchyPathToTop() {
+        return service.getHierarchyPathToTop( OFF_SITE, Locale.GERMAN );
+    }
+
+    @Benchmark
+    public RelatedTerm[] getRelatedTermsFromTerm() {
+        return service.getRelatedTermsFromTerm( THEMA, Locale.GERMAN );
+    }
+}
@@ -0,0 +1,335 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server replaying recorded GEMET responses (JSON and RDF) with a
+ * configurable latency, so the service can be measured without the GEMET
+ * service. The server acts as HTTP proxy: set "http.proxyHost" and
+ * "http.proxyPort" (see {@link #useAsProxy()}) before creating the client,
+ * then all requests to the GEMET service and to the RDF concept URIs end
+ * here and are identified by their full URL. System properties set by the
+ * server are restored on {@link #close()}.
+ * <p>
+ * Fixtures are read from a tab separated file, one response per line:
+ * <code>URL &lt;TAB&gt; content type &lt;TAB&gt; body</code>, with tabs,
+ * newlines, carriage returns and backslashes in the body escaped as \t, \n,
+ * \r and \\. A URL ending
+ * with "*" matches all URLs starting with it, the longest match wins. Unknown
+ * URLs are answered with 404 or, in record mode, fetched from the real
+ * service and appended to the fixture file.
+ */
+public class GEMETStubServer implements AutoCloseable {
+
+    private final static Logger log = LogManager.getLogger( GEMETStubServer.class );
+
+    private final Map<String, String[]> fixtures = new ConcurrentHashMap<String, String[]>();
+
+    private final Map<String, String[]> prefixFixtures = new ConcurrentHashMap<String, String[]>();
+
+    /** requests of all stub servers of this JVM */
+    private final static AtomicLong totalRequestCount = new AtomicLong();
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private volatile long latencyMillis;
+
+    /** fixture file new responses are appended to, null if not recording */
+    private Path recordFile;
+
+    /** serializes appending to the fixture file */
+    private final Object recordLock = new Object();
+
+    /** values of the system properties before set by this server */
+    private final Map<String, String> previousProperties = new LinkedHashMap<String, String>();
+
+    public GEMETStubServer() throws IOException {
+        // otherwise small responses are delayed by Nagle's algorithm, which
+        // would dominate the configured latency
+        setSystemProperty( "sun.net.httpserver.nodelay", "true" );
+        this.server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 100 );
+        // requests are answered in parallel like by the real service
+        this.executor = Executors.newCachedThreadPool( r -> {
+            Thread thread = new Thread( r, "gemet-stub" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        this.server.setExecutor( executor );
+        this.server.createContext( "/", this::handle );
+        this.server.start();
+    }
+
+    /**
+     * Load fixtures from the given classpath resource.
+     */
+    public GEMETStubServer loadFixtures(String resource) throws IOException {
+        try (InputStream in = GEMETStubServer.class.getResourceAsStream( resource )) {
+            if (in == null) {
+                throw new IOException( "Fixtures not found: " + resource );
+            }
+            loadFixtures( new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) ) );
+        }
+        return this;
+    }
+
+    /**
+     * Load fixtures from the given file and append responses fetched from the
+     * real service for unknown URLs.
+     */
+    public GEMETStubServer record(Path fixtureFile) throws IOException {
+        if (Files.exists( fixtureFile )) {
+            try (BufferedReader reader = Files.newBufferedReader( fixtureFile, StandardCharsets.UTF_8 )) {
+                loadFixtures( reader );
+            }
+        }
+        this.recordFile = fixtureFile;
+        return this;
+    }
+
+    private void loadFixtures(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith( "#" )) {
+                continue;
+            }
+            String[] fields = line.split( "\t", 3 );
+            if (fields.length != 3) {
+                throw new IOException( "Invalid fixture line: " + line );
+            }
+            respond( fields[0], fields[1], unescape( fields[2] ) );
+        }
+    }
+
+    /**
+     * Register response for the given URL, URL ending with "*" for all URLs
+     * starting with it.
+     */
+    public GEMETStubServer respond(String url, String contentType, String body) {
+        String[] response = new String[] { contentType, body };
+        if (url.endsWith( "*" )) {
+            prefixFixtures.put( url.substring( 0, url.length() - 1 ), response );
+        } else {
+            fixtures.put( url, response );
+        }
+        return this;
+    }
+
+    /** Delay of every response */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /** Number of requests received since start or last reset */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /** Number of requests received by all stub servers of this JVM */
+    public static long getTotalRequestCount() {
+        return totalRequestCount.get();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Route all HTTP requests of this JVM via this server, must be called
+     * before the client is created. The proxy system properties are only
+     * used by HTTP clients created with
+     * <code>HttpClientBuilder.useSystemProperties()</code> (like
+     * {@link HttpGEMETTransport}) or by {@link HttpURLConnection}.
+     */
+    public void useAsProxy() {
+        setSystemProperty( "http.proxyHost", "127.0.0.1" );
+        setSystemProperty( "http.proxyPort", String.valueOf( getPort() ) );
+        setSystemProperty( "http.nonProxyHosts", "" );
+    }
+
+    /**
+     * Stop the server and restore the system properties set by it.
+     */
+    @Override
+    public void close() {
+        server.stop( 0 );
+        executor.shutdownNow();
+        synchronized (previousProperties) {
+            for (Map.Entry<String, String> property : previousProperties.entrySet()) {
+                if (property.getValue() == null) {
+                    System.clearProperty( property.getKey() );
+                } else {
+                    System.setProperty( property.getKey(), property.getValue() );
+                }
+            }
+            previousProperties.clear();
+        }
+    }
+
+    /**
+     * Set system property, the first previous value is kept for restoring on
+     * close.
+     */
+    private void setSystemProperty(String name, String value) {
+        synchronized (previousProperties) {
+            String previous = System.setProperty( name, value );
+            if (!previousProperties.containsKey( name )) {
+                previousProperties.put( name, previous );
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        totalRequestCount.incrementAndGet();
+        try {
+            // absolute URL when used as proxy
+            String url = exchange.getRequestURI().toString();
+            if (!url.startsWith( "http" )) {
+                url = "http://" + exchange.getRequestHeaders().getFirst( "Host" ) + url;
+            }
+
+            String[] response = getResponse( url );
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep( latencyMillis );
+            }
+
+            if (response == null) {
+                log.warn( "No fixture for {}", url );
+                exchange.sendResponseHeaders( 404, -1 );
+                return;
+            }
+
+            byte[] body = response[1].getBytes( StandardCharsets.UTF_8 );
+            exchange.getResponseHeaders().set( "Content-Type", response[0] );
+            exchange.sendResponseHeaders( 200, body.length );
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write( body );
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders( 503, -1 );
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String[] getResponse(String url) throws IOException {
+        String[] response = fixtures.get( url );
+        if (response != null) {
+            return response;
+        }
+
+        String longestPrefix = null;
+        for (String prefix : prefixFixtures.keySet()) {
+            if (url.startsWith( prefix ) && (longestPrefix == null || prefix.length() > longestPrefix.length())) {
+                longestPrefix = prefix;
+            }
+        }
+        if (longestPrefix != null) {
+            return prefixFixtures.get( longestPrefix );
+        }
+        return recordFile != null ? fetchAndRecord( url ) : null;
+    }
+
+    /**
+     * Fetch response from the real service in parallel, only appending to the
+     * fixture file is serialized.
+     */
+    private String[] fetchAndRecord(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL( url ).openConnection( java.net.Proxy.NO_PROXY );
+        connection.setRequestProperty( "Accept", url.contains( "/concept/" ) && !url.contains( "?" ) ? "application/rdf+xml" : "application/json" );
+        if (connection.getResponseCode() != 200) {
+            log.warn( "Not recorded, HTTP {} for {}", connection.getResponseCode(), url );
+            return null;
+        }
+        String contentType = connection.getContentType();
+        String body;
+        try (InputStream in = connection.getInputStream()) {
+            body = IOUtils.toString( in, StandardCharsets.UTF_8 );
+        }
+
+        synchronized (recordLock) {
+            // same URL fetched in parallel, recorded only once
+            String[] recorded = fixtures.get( url );
+            if (recorded != null) {
+                return recorded;
+            }
+            try (Writer writer = Files.newBufferedWriter( recordFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND )) {
+                writer.write( url + "\t" + contentType + "\t" + escape( body ) + "\n" );
+            }
+            String[] response = new String[] { contentType, body };
+            fixtures.put( url, response );
+            return response;
+        }
+    }
+
+    static String escape(String value) {
+        return value.replace( "\\", "\\\\" ).replace( "\t", "\\t" ).replace( "\r", "\\r" ).replace( "\n", "\\n" );
+    }
+
+    static String unescape(String value) {
+        StringBuilder result = new StringBuilder( value.length() );
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt( i );
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt( ++i );
+                result.append( next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next );
+            } else {
+                result.append( c );
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,332 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Executes independent requests of one call (e.g. fetching all children of a
+ * hierarchy node) in parallel with bounded concurrency. Results keep the order
+ * of the passed tasks, so the outcome is deterministic. All tasks of one call
+ * share a deadline, results not delivered in time are skipped. Calls fanning
+ * out several times pass one deadline (see {@link #newDeadline()}) to all
+ * their invokeAll calls.<br>
+ * Tasks fanning out again (e.g. fetching children of every child) are executed
+ * sequentially in the calling worker, so the workers never wait for each other.
+ * <br>
+ * Tasks skipped because of the deadline are cancelled: the worker is
+ * interrupted and the blocking request of the task is aborted (see
+ * {@link #setCancelAction(Runnable)}).
+ */
+public class FanOutExecutor implements Closeable {
+
+    private final static Logger log = LogManager.getLogger( FanOutExecutor.class );
+
+    /** marks threads currently executing a task of a FanOutExecutor */
+    private static final ThreadLocal<Boolean> inTask = ThreadLocal.withInitial( () -> Boolean.FALSE );
+
+    /** task executed by the current worker thread, null if none */
+    private static final ThreadLocal<Task<?>> currentTask = new ThreadLocal<Task<?>>();
+
+    /** null if tasks are executed sequentially */
+    private final ExecutorService executor;
+
+    /** whether the executor was created by us and has to be shut down */
+    private final boolean ownExecutor;
+
+    /** limits number of tasks running at the same time, null if unlimited */
+    private final Semaphore permits;
+
+    /** Maximum duration of one call in milliseconds */
+    private final long timeoutMillis;
+
+    /**
+     * Create executor from settings in gemet.properties
+     * ("service.fanout.threads", "service.fanout.timeout").
+     */
+    public FanOutExecutor(ResourceBundle gemetProps) {
+        this( createExecutor( PropertiesUtils.getInt( gemetProps, "service.fanout.threads", 8 ) ), 0,
+                PropertiesUtils.getLong( gemetProps, "service.fanout.timeout", 10000 ), true );
+    }
+
+    /**
+     * Create executor using the given ExecutorService, e.g. one with virtual
+     * threads on newer JVMs.
+     * 
+     * @param executor
+     *            executes the tasks, pass null to execute sequentially
+     * @param maxConcurrency
+     *            maximum number of tasks of all calls running at the same time,
+     *            pass 0 if bounded by the executor itself
+     * @param timeoutMillis
+     *            maximum duration of one call, pass 0 for no deadline
+     */
+    public FanOutExecutor(ExecutorService executor, int maxConcurrency, long timeoutMillis) {
+        this( executor, maxConcurrency, timeoutMillis, false );
+    }
+
+    private FanOutExecutor(ExecutorService executor, int maxConcurrency, long timeoutMillis, boolean ownExecutor) {
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.permits = maxConcurrency > 0 ? new Semaphore( maxConcurrency ) : null;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Deadline of a call starting now, to be passed to all invokeAll calls of
+     * this call.
+     * 
+     * @return deadline in terms of System.nanoTime()
+     */
+    public long newDeadline() {
+        return timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMillis ) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return true if the given deadline (see {@link #newDeadline()}) is
+     *         exceeded
+     */
+    public static boolean isExpired(long deadline) {
+        return deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * Register action aborting the blocking work of the task executed by the
+     * current thread, e.g. the running HTTP request. The action is executed
+     * when the task is cancelled, immediately if already cancelled. Does
+     * nothing if the current thread does not execute a task.
+     * 
+     * @param cancelAction
+     *            abort action, pass null to remove the action when the work is
+     *            done
+     */
+    public static void setCancelAction(Runnable cancelAction) {
+        Task<?> task = currentTask.get();
+        if (task != null) {
+            task.setCancelAction( cancelAction );
+        }
+    }
+
+    /**
+     * @return true if the task executed by the current thread was cancelled,
+     *         e.g. because its deadline passed
+     */
+    public static boolean isCurrentTaskCancelled() {
+        Task<?> task = currentTask.get();
+        return task != null && task.isCancelled();
+    }
+
+    /**
+     * Execute all tasks and wait for their results until the deadline of
+     * service.fanout.timeout.
+     * 
+     * @param tasks
+     *            independent tasks
+     * @return results in the order of the tasks, null for tasks which failed or
+     *         did not finish in time
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        return invokeAll( tasks, newDeadline() );
+    }
+
+    /**
+     * Execute all tasks and wait for their results until the given deadline.
+     * 
+     * @param tasks
+     *            independent tasks
+     * @param deadline
+     *            deadline of the whole call, see {@link #newDeadline()}
+     * @return results in the order of the tasks, null for tasks which failed or
+     *         did not finish in time
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks, long deadline) {
+        if (executor == null || tasks.size() < 2 || inTask.get()) {
+            return invokeSequentially( tasks, deadline );
+        }
+
+        List<Future<T>> futures = new ArrayList<Future<T>>( tasks.size() );
+        for (Callable<T> task : tasks) {
+            Task<T> future = new Task<T>( () -> runTask( task ) );
+            executor.execute( future );
+            futures.add( future );
+        }
+
+        List<T> results = new ArrayList<T>( tasks.size() );
+        for (int i = 0; i < futures.size(); i++) {
+            Future<T> future = futures.get( i );
+            try {
+                long remaining = deadline - System.nanoTime();
+                results.add( future.get( Math.max( remaining, 0 ), TimeUnit.NANOSECONDS ) );
+            } catch (TimeoutException | CancellationException e) {
+                log.warn( "Deadline of {} ms exceeded, we skip {} of {} results !", timeoutMillis, futures.size() - i, futures.size() );
+                for (int j = i; j < futures.size(); j++) {
+                    futures.get( j ).cancel( true );
+                    results.add( null );
+                }
+                break;
+            } catch (ExecutionException e) {
+                log.error( "Problems executing parallel request, we skip this one !", e.getCause() );
+                results.add( null );
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (int j = i; j < futures.size(); j++) {
+                    futures.get( j ).cancel( true );
+                    results.add( null );
+                }
+                break;
+            }
+        }
+
+        return results;
+    }
+
+    private <T> List<T> invokeSequentially(List<Callable<T>> tasks, long deadline) {
+        if (tasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<T> results = new ArrayList<T>( tasks.size() );
+        for (int i = 0; i < tasks.size(); i++) {
+            if (isExpired( deadline ) || Thread.currentThread().isInterrupted()) {
+                // deadline exceeded or the task of this worker was cancelled
+                log.warn( "Deadline of {} ms exceeded, we skip {} of {} results !", timeoutMillis, tasks.size() - i, tasks.size() );
+                for (int j = i; j < tasks.size(); j++) {
+                    results.add( null );
+                }
+                break;
+            }
+
+            try {
+                results.add( tasks.get( i ).call() );
+            } catch (Exception e) {
+                log.error( "Problems executing request, we skip this one !", e );
+                results.add( null );
+            }
+        }
+
+        return results;
+    }
+
+    private <T> T runTask(Callable<T> task) throws Exception {
+        if (permits != null) {
+            permits.acquire();
+        }
+        inTask.set( Boolean.TRUE );
+        try {
+            return task.call();
+        } finally {
+            inTask.set( Boolean.FALSE );
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Shut down the executor if created from gemet.properties. A passed
+     * executor has to be shut down by its owner.
+     */
+    @Override
+    public void close() {
+        if (executor != null && ownExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Task executing the abort action of its blocking work when cancelled, so
+     * the worker does not wait for a response nobody needs anymore.
+     */
+    private static class Task<T> extends FutureTask<T> {
+
+        private Runnable cancelAction;
+
+        Task(Callable<T> callable) {
+            super( callable );
+        }
+
+        @Override
+        public void run() {
+            currentTask.set( this );
+            try {
+                super.run();
+            } finally {
+                currentTask.remove();
+            }
+        }
+
+        synchronized void setCancelAction(Runnable cancelAction) {
+            this.cancelAction = cancelAction;
+            if (cancelAction != null && isCancelled()) {
+                cancelAction.run();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel( mayInterruptIfRunning );
+            if (cancelled) {
+                synchronized (this) {
+                    if (cancelAction != null) {
+                        cancelAction.run();
+                    }
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        if (threads <= 0) {
+            return null;
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger( 1 );
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread( r, "gemet-fanout-" + threadNumber.getAndIncrement() );
+            thread.setDaemon( true );
+            return thread;
+        };
+
+        return Executors.newFixedThreadPool( threads, threadFactory );
+    }
+}
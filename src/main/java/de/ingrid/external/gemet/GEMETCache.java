@@ -0,0 +1,344 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * In memory cache of GEMET responses with maximum size (least recently used
+ * entries are evicted) and time to live. Hits take no lock, they only update
+ * the access time of the entry. When the cache is full, the least recently
+ * used entries are evicted in one batch, so the cache keeps between 15/16 of
+ * the maximum size and the maximum size. Concurrent requests of a missing
+ * entry are collapsed into one request to the service. If the loading thread
+ * is cancelled (its deadline passed, see {@link FanOutExecutor}), the waiting
+ * threads do not get its failure but load the entry themselves. Failed
+ * requests are not cached.<br>
+ * NOTICE: Cached responses are shared, they must not be modified !
+ */
+public class GEMETCache {
+
+    private final static Logger log = LogManager.getLogger( GEMETCache.class );
+
+    /**
+     * Statistics of the cache since creation.
+     */
+    public static class Stats {
+
+        private final long hitCount;
+        private final long missCount;
+        private final long coalescedCount;
+        private final long evictionCount;
+        private final long expiredCount;
+        private final long loadFailureCount;
+        private final int size;
+
+        Stats(long hitCount, long missCount, long coalescedCount, long evictionCount, long expiredCount, long loadFailureCount, int size) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.coalescedCount = coalescedCount;
+            this.evictionCount = evictionCount;
+            this.expiredCount = expiredCount;
+            this.loadFailureCount = loadFailureCount;
+            this.size = size;
+        }
+
+        /** Number of requests answered from the cache */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        /** Number of requests sent to the service */
+        public long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * Number of requests waiting for a concurrent request of the same entry
+         * instead of requesting the service
+         */
+        public long getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        /** Number of entries removed because the cache was full */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /** Number of entries removed because their time to live passed */
+        public long getExpiredCount() {
+            return expiredCount;
+        }
+
+        /** Number of failed requests to the service */
+        public long getLoadFailureCount() {
+            return loadFailureCount;
+        }
+
+        /** Current number of entries */
+        public int getSize() {
+            return size;
+        }
+
+        /** Ratio of requests not sent to the service */
+        public double getHitRate() {
+            long requestCount = hitCount + missCount + coalescedCount;
+            return requestCount == 0 ? 1.0 : (double) (hitCount + coalescedCount) / requestCount;
+        }
+
+        @Override
+        public String toString() {
+            return "GEMETCache.Stats[hits=" + hitCount + ", misses=" + missCount + ", coalesced=" + coalescedCount + ", evictions=" + evictionCount + ", expired="
+                    + expiredCount + ", loadFailures=" + loadFailureCount + ", size=" + size + "]";
+        }
+    }
+
+    /** Passed to waiting threads if the loading thread was cancelled */
+    private static class LoadCancelledException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        LoadCancelledException(Throwable cause) {
+            super( cause );
+        }
+    }
+
+    private static class Entry {
+
+        final Object value;
+        final long expiresAt;
+
+        /** last access in terms of System.nanoTime() */
+        volatile long accessedAt;
+
+        Entry(Object value, long expiresAt, long accessedAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.accessedAt = accessedAt;
+        }
+    }
+
+    private final int maxSize;
+
+    private final long ttlNanos;
+
+    private final Map<GEMETRequestKey, Entry> entries = new ConcurrentHashMap<GEMETRequestKey, Entry>();
+
+    /** only one thread evicts at a time */
+    private final Object evictionLock = new Object();
+
+    /** requests currently sent to the service */
+    private final Map<GEMETRequestKey, CompletableFuture<Object>> loading = new ConcurrentHashMap<GEMETRequestKey, CompletableFuture<Object>>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+
+    /**
+     * Create cache from settings in gemet.properties ("service.cache.maxSize",
+     * "service.cache.ttl").
+     */
+    public GEMETCache(ResourceBundle gemetProps) {
+        this( PropertiesUtils.getInt( gemetProps, "service.cache.maxSize", 10000 ),
+                TimeUnit.MINUTES.toMillis( PropertiesUtils.getLong( gemetProps, "service.cache.ttl", 1440 ) ) );
+    }
+
+    /**
+     * @param maxSize
+     *            maximum number of entries
+     * @param ttlMillis
+     *            time to live of an entry in milliseconds, 0 means no
+     *            expiration
+     */
+    public GEMETCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos( ttlMillis ) : 0;
+
+        if (log.isDebugEnabled()) {
+            log.debug( "Cache: maxSize={}, ttl={} ms", maxSize, ttlMillis );
+        }
+    }
+
+    /**
+     * Get cached response or load it. If the response of the same key is
+     * currently loaded by another thread we wait for it and load it ourselves
+     * if that thread is cancelled.
+     * 
+     * @param key
+     *            identifies the request
+     * @param loader
+     *            requests the service, not called if response is cached
+     * @return the response
+     * @throws Exception
+     *             the exception of the loader
+     */
+    public Object get(GEMETRequestKey key, Callable<Object> loader) throws Exception {
+        Object value = getIfPresent( key );
+        if (value != null) {
+            hitCount.increment();
+            return value;
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        CompletableFuture<Object> running;
+        while ((running = loading.putIfAbsent( key, future )) != null) {
+            coalescedCount.increment();
+            try {
+                return await( running );
+            } catch (LoadCancelledException e) {
+                // loading thread was cancelled, not our deadline, try again
+            }
+        }
+
+        try {
+            // may have been loaded since our first check
+            value = getIfPresent( key );
+            if (value != null) {
+                hitCount.increment();
+            } else {
+                missCount.increment();
+                value = loader.call();
+                if (value != null) {
+                    put( key, value );
+                }
+            }
+            future.complete( value );
+            return value;
+
+        } catch (Exception e) {
+            loadFailureCount.increment();
+            // removed first, so waiting threads retrying do not find it again
+            loading.remove( key, future );
+            future.completeExceptionally( FanOutExecutor.isCurrentTaskCancelled() ? new LoadCancelledException( e ) : e );
+            throw e;
+        } finally {
+            loading.remove( key, future );
+        }
+    }
+
+    /**
+     * Get cached response without loading.
+     * 
+     * @return the response or null if not cached or expired
+     */
+    public Object getIfPresent(GEMETRequestKey key) {
+        Entry entry = entries.get( key );
+        if (entry == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (ttlNanos > 0 && now - entry.expiresAt > 0) {
+            if (entries.remove( key, entry )) {
+                expiredCount.increment();
+            }
+            return null;
+        }
+        entry.accessedAt = now;
+        return entry.value;
+    }
+
+    public void put(GEMETRequestKey key, Object value) {
+        long now = System.nanoTime();
+        entries.put( key, new Entry( value, now + ttlNanos, now ) );
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Evict least recently used entries, so the cache is below its maximum
+     * size again. We evict 1/16 of the maximum size more than needed, so
+     * determining the least recently used entries is only needed every
+     * maxSize/16 puts.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            List<Map.Entry<GEMETRequestKey, Entry>> candidates = new ArrayList<Map.Entry<GEMETRequestKey, Entry>>( entries.entrySet() );
+            int count = Math.min( candidates.size() - maxSize + maxSize / 16, candidates.size() );
+            if (count <= 0) {
+                // already evicted by another thread
+                return;
+            }
+
+            // access times may change meanwhile, we decide on a copy
+            long[] accessTimes = new long[candidates.size()];
+            for (int i = 0; i < accessTimes.length; i++) {
+                accessTimes[i] = candidates.get( i ).getValue().accessedAt;
+            }
+            long[] sorted = accessTimes.clone();
+            Arrays.sort( sorted );
+            long lastAccessToEvict = sorted[count - 1];
+
+            int evicted = 0;
+            for (int i = 0; i < accessTimes.length && evicted < count; i++) {
+                Map.Entry<GEMETRequestKey, Entry> candidate = candidates.get( i );
+                // entries replaced meanwhile are kept
+                if (accessTimes[i] <= lastAccessToEvict && entries.remove( candidate.getKey(), candidate.getValue() )) {
+                    evicted++;
+                }
+            }
+            evictionCount.add( evicted );
+        }
+    }
+
+    public void invalidate(GEMETRequestKey key) {
+        entries.remove( key );
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public Stats getStats() {
+        int size = entries.size();
+        return new Stats( hitCount.sum(), missCount.sum(), coalescedCount.sum(), evictionCount.sum(), expiredCount.sum(), loadFailureCount.sum(), size );
+    }
+
+    private Object await(CompletableFuture<Object> running) throws Exception {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
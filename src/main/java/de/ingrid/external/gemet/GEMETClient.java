@@ -22,29 +22,30 @@
  */
 package de.ingrid.external.gemet;
 
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.jena.atlas.web.TypedInputStream;
-import org.apache.jena.http.HttpOp;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.shared.DoesNotExistException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
 
-public class GEMETClient {
+public class GEMETClient implements Closeable {
 
     private final static Logger log = LogManager.getLogger( GEMETClient.class );
 
@@ -113,29 +114,101 @@ public class GEMETClient {
     /** The URL to the service to use ((set from gemet.properties) */
     private String serviceUrl;
 
+    /** Executes all HTTP requests, shared connection pool */
+    private final GEMETTransport transport;
+
+    /** Executes the ...Async methods (number of threads from gemet.properties) */
+    private final ExecutorService asyncExecutor;
+
+    /**
+     * Executes independent requests of one call in parallel, e.g. fetching
+     * children (settings from gemet.properties)
+     */
+    private final FanOutExecutor fanOutExecutor;
+
+    /** Caches responses, null if caching is disabled (set from gemet.properties) */
+    private final GEMETCache cache;
+
+    /**
+     * Persists responses on disk, null if no store directory is set in
+     * gemet.properties
+     */
+    private final GEMETStore store;
+
     public GEMETClient(ResourceBundle gemetProps) {
+        this( gemetProps, new HttpGEMETTransport( gemetProps ) );
+    }
+
+    /**
+     * Create client using the given transport, e.g. a local stub in tests.
+     */
+    public GEMETClient(ResourceBundle gemetProps, GEMETTransport transport) {
         this.serviceUrl = gemetProps.getString( "service.url" );
+        this.transport = transport;
+        this.asyncExecutor = Executors.newFixedThreadPool( PropertiesUtils.getInt( gemetProps, "service.async.threads", 8 ), new ClientThreadFactory() );
+        this.fanOutExecutor = new FanOutExecutor( gemetProps );
+        this.cache = PropertiesUtils.getBoolean( gemetProps, "service.cache.enabled", true ) ? new GEMETCache( gemetProps ) : null;
+
+        GEMETStore gemetStore = null;
+        try {
+            gemetStore = GEMETStore.create( gemetProps );
+        } catch (IOException e) {
+            log.error( "Problems opening GEMET store, we work without store !", e );
+        }
+        this.store = gemetStore;
+        if (store != null && cache != null) {
+            // otherwise the outdated response is delivered from the cache
+            // until it expires
+            store.setRevalidationListener( cache::put );
+        }
+    }
+
+    /**
+     * Statistics of the response cache.
+     * 
+     * @return the statistics or null if caching is disabled
+     */
+    public GEMETCache.Stats getCacheStats() {
+        return cache == null ? null : cache.getStats();
+    }
+
+    /**
+     * The executor used for parallel requests of the client. Can also be used
+     * by callers fanning out requests to the client, nested fan outs are
+     * executed sequentially then.
+     */
+    public FanOutExecutor getFanOutExecutor() {
+        return fanOutExecutor;
+    }
+
+    /**
+     * Release all resources, e.g. pooled connections. The client cannot be
+     * used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        asyncExecutor.shutdownNow();
+        fanOutExecutor.close();
+        if (store != null) {
+            store.close();
+        }
+        transport.close();
     }
 
     public Resource getConceptAsRDF(String conceptUri) {
         if (conceptUri == null || conceptUri.trim().length() == 0) {
             throw new IllegalArgumentException( "No conceptUri passed!" );
         }
-        // create an empty model
-        Model model = ModelFactory.createDefaultModel();
-
         String req = conceptUri;
 
         if (log.isDebugEnabled()) {
             log.debug("Fetching term from: {}", req);
         }
 
+        Model model = null;
         try {
-            // read the RDF/XML file. We have to pass Accept header to get RDF
-            // response.
-            final TypedInputStream is = HttpOp.httpGet( req, "application/rdf+xml" );
-            model.read( is, null );
-        } catch (DoesNotExistException e) {
+            model = (Model) request( new GEMETRequestKey( "rdf", conceptUri, null, null ), () -> requestRdfUrl( req ) );
+        } catch (FileNotFoundException e) {
             log.error("The term does not exist: {}", req, e );
             return null;
         } catch (Exception e) {
@@ -147,25 +220,42 @@ public class GEMETClient {
     }
 
     public JSONObject getConceptAsJSON(String conceptUri, String language) {
+        JSONObject result = null;
+
+        try {
+            result = fetchConcept( conceptUri, language );
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("The URI seems to have a problem: {}", getConceptUrl( conceptUri, language ), e );
+        }
+
+        return result;
+    }
+
+    /**
+     * Like {@link #getConceptAsJSON(String, String)} but problems are thrown,
+     * e.g. to tell unknown concepts from failed requests.
+     * 
+     * @throws FileNotFoundException
+     *             if the concept is unknown
+     */
+    public JSONObject fetchConcept(String conceptUri, String language) throws Exception {
         if (conceptUri == null || conceptUri.trim().length() == 0) {
             throw new IllegalArgumentException( "No conceptUri passed!" );
         }
 
-        String req = HTMLUtils.prepareUrl( serviceUrl ) + "getConcept?concept_uri=" + conceptUri + "&language=" + language;
+        String req = getConceptUrl( conceptUri, language );
 
         if (log.isDebugEnabled()) {
             log.debug("Fetching term from: {}", req);
         }
 
-        JSONObject result = null;
-
-        try {
-            result = (JSONObject) requestJsonUrl( req );
-        } catch (Exception e) {
-            log.error("The URI seems to have a problem: {}", req, e );
-        }
+        return (JSONObject) request( new GEMETRequestKey( "getConcept", conceptUri, null, language ), () -> requestJsonUrl( req ) );
+    }
 
-        return result;
+    private String getConceptUrl(String conceptUri, String language) {
+        return HTMLUtils.prepareUrl( serviceUrl ) + "getConcept?concept_uri=" + conceptUri + "&language=" + language;
     }
 
     /**
@@ -189,12 +279,19 @@ public class GEMETClient {
             return resultList;
         }
 
+        // keywords are requested in parallel, order of keywords is kept
+        List<Callable<JSONArray>> requests = new ArrayList<Callable<JSONArray>>();
         for (String keyword : keywords) {
             if (keyword == null || keyword.trim().length() == 0) {
                 continue;
             }
 
-            resultList.add( getConceptsMatchingKeyword( keyword, language, searchMode ) );
+            requests.add( () -> getConceptsMatchingKeyword( keyword, language, searchMode ) );
+        }
+
+        for (JSONArray concepts : fanOutExecutor.invokeAll( requests )) {
+            // null if deadline exceeded
+            resultList.add( concepts != null ? concepts : new JSONArray() );
         }
 
         return resultList;
@@ -227,7 +324,7 @@ public class GEMETClient {
         }
 
         try {
-            result = (JSONArray) requestJsonUrl( req );
+            result = (JSONArray) request( new GEMETRequestKey( "getConceptsMatchingKeyword", keyword, searchMode.toString(), language ), () -> requestJsonUrl( req ) );
         } catch (Exception e) {
             log.error("The URI seems to have a problem: {}", req, e );
         }
@@ -248,10 +345,21 @@ public class GEMETClient {
      *         full data of every child
      */
     public List<JSONArray> getChildConcepts(String conceptUri, String language) {
-        return getChildConceptsViaGetAllConceptRelatives( conceptUri, language );
+        return getChildConcepts( conceptUri, language, fanOutExecutor.newDeadline() );
     }
 
-    protected List<JSONArray> getChildConceptsViaGetAllConceptRelatives(String conceptUri, String language) {
+    /**
+     * Like {@link #getChildConcepts(String, String)} but as part of a call
+     * with the given deadline, children not fetched until then are skipped.
+     * 
+     * @param deadline
+     *            see {@link FanOutExecutor#newDeadline()}
+     */
+    public List<JSONArray> getChildConcepts(String conceptUri, String language, long deadline) {
+        return getChildConceptsViaGetAllConceptRelatives( conceptUri, language, deadline );
+    }
+
+    protected List<JSONArray> getChildConceptsViaGetAllConceptRelatives(String conceptUri, String language, long deadline) {
         // child relation types
         ConceptRelation[] relations = null;
         if (isGroup( conceptUri )) {
@@ -266,35 +374,28 @@ public class GEMETClient {
 
         // get children
         for (ConceptRelation relation : relations) {
+            if (FanOutExecutor.isExpired( deadline )) {
+                log.warn( "Deadline exceeded, we skip children of {} !", conceptUri );
+                break;
+            }
+
             // only relation as JSON Object { source, relation, target } and not
             // full data of target
             JSONArray conceptRelations = getAllConceptRelatives( conceptUri, relation, language );
 
-            // parse relations and fetch full child concepts
-            JSONArray childConcepts = new JSONArray();
+            // parse relations and fetch full child concepts. Children are
+            // fetched in parallel, order of relations is kept !
+            List<Callable<JSONObject>> childRequests = new ArrayList<Callable<JSONObject>>();
             for (Object conceptRelation : conceptRelations) {
                 String childId = JSONUtils.getTarget( (JSONObject) conceptRelation );
+                childRequests.add( () -> getChildConcept( childId, relation, language ) );
+            }
 
-                // we have to filter GROUP_MEMBER ! We use only those children
-                // having NO BROADER concept meaning their only parent is the
-                // group !
-                if (relation == ConceptRelation.GROUP_MEMBER) {
-                    if (hasRelation( childId, ConceptRelation.BROADER, language )) {
-                        continue;
-                    }
-                }
-
-                // we have a child, fetch full data and add to child concepts
-
-                // we check on null, cause some concepts are buggy in service !
-                // (e.g. concept/15041)
-                JSONObject child = getConceptAsJSON( childId, language );
-                if (child == null) {
-                    log.error("Problems fetching child {} we skip this one !", childId);
-                    continue;
+            JSONArray childConcepts = new JSONArray();
+            for (JSONObject child : fanOutExecutor.invokeAll( childRequests, deadline )) {
+                if (child != null) {
+                    childConcepts.add( child );
                 }
-
-                childConcepts.add( child );
             }
 
             // add all children of this relation type to result list
@@ -304,6 +405,39 @@ public class GEMETClient {
         return resultList;
     }
 
+    /**
+     * Fetch full data of a child.
+     * 
+     * @param childId
+     *            target of the relation
+     * @param relation
+     *            relation from parent to child
+     * @param language
+     *            child in which language
+     * @return the child or null if not a valid child or problems fetching it
+     */
+    private JSONObject getChildConcept(String childId, ConceptRelation relation, String language) {
+        // we have to filter GROUP_MEMBER ! We use only those children
+        // having NO BROADER concept meaning their only parent is the
+        // group !
+        if (relation == ConceptRelation.GROUP_MEMBER) {
+            if (hasRelation( childId, ConceptRelation.BROADER, language )) {
+                return null;
+            }
+        }
+
+        // we have a child, fetch full data
+
+        // we check on null, cause some concepts are buggy in service !
+        // (e.g. concept/15041)
+        JSONObject child = getConceptAsJSON( childId, language );
+        if (child == null) {
+            log.error("Problems fetching child {} we skip this one !", childId);
+        }
+
+        return child;
+    }
+
     // @formatter:off
     /**
      * This one is buggy e.g.<br>
@@ -395,7 +529,7 @@ public class GEMETClient {
         }
 
         try {
-            result = (JSONArray) requestJsonUrl( req );
+            result = (JSONArray) request( new GEMETRequestKey( "getTopmostConcepts", thesaurusUri.toString(), null, language ), () -> requestJsonUrl( req ) );
         } catch (Exception e) {
             log.error("The URI seems to have a problem: {}", req, e );
         }
@@ -418,7 +552,7 @@ public class GEMETClient {
         }
 
         try {
-            result = (JSONArray) requestJsonUrl( req );
+            result = (JSONArray) request( new GEMETRequestKey( "getRelatedConcepts", conceptUri, relation.toString(), language ), () -> requestJsonUrl( req ) );
         } catch (Exception e) {
             log.error("The URI seems to have a problem: {}", req, e );
         }
@@ -433,32 +567,107 @@ public class GEMETClient {
             return result;
         }
 
-        String req = HTMLUtils.prepareUrl( serviceUrl ) + "getAllConceptRelatives?concept_uri=" + conceptUri + "&relation_uri=" + HTMLUtils.encodeForURL( relation.toString() )
-                + "&language=" + language;
+        try {
+            result = fetchAllConceptRelatives( conceptUri, relation, language );
+        } catch (Exception e) {
+            log.error("The URI seems to have a problem: {}", getAllConceptRelativesUrl( conceptUri, relation, language ), e );
+        }
+
+        return result;
+    }
+
+    /**
+     * Like {@link #getAllConceptRelatives(String, ConceptRelation, String)}
+     * but problems are thrown instead of returning an empty result, so a
+     * failed request can be told from a concept without relatives.
+     */
+    public JSONArray fetchAllConceptRelatives(String conceptUri, ConceptRelation relation, String language) throws Exception {
+        if (conceptUri == null || conceptUri.trim().length() == 0) {
+            throw new IllegalArgumentException( "No conceptUri passed!" );
+        }
+
+        String req = getAllConceptRelativesUrl( conceptUri, relation, language );
 
         if (log.isDebugEnabled()) {
             log.debug("Fetching terms from: {}", req);
         }
 
-        try {
-            result = (JSONArray) requestJsonUrl( req );
-        } catch (Exception e) {
-            log.error("The URI seems to have a problem: {}", req, e );
+        return (JSONArray) request( new GEMETRequestKey( "getAllConceptRelatives", conceptUri, relation.toString(), language ), () -> requestJsonUrl( req ) );
+    }
+
+    private String getAllConceptRelativesUrl(String conceptUri, ConceptRelation relation, String language) {
+        return HTMLUtils.prepareUrl( serviceUrl ) + "getAllConceptRelatives?concept_uri=" + conceptUri + "&relation_uri=" + HTMLUtils.encodeForURL( relation.toString() )
+                + "&language=" + language;
+    }
+
+    public CompletableFuture<JSONObject> getConceptAsJSONAsync(String conceptUri, String language) {
+        return CompletableFuture.supplyAsync( () -> getConceptAsJSON( conceptUri, language ), asyncExecutor );
+    }
+
+    public CompletableFuture<JSONArray> getConceptsMatchingKeywordAsync(String keyword, String language, MatchingConceptsSearchMode searchMode) {
+        return CompletableFuture.supplyAsync( () -> getConceptsMatchingKeyword( keyword, language, searchMode ), asyncExecutor );
+    }
+
+    public CompletableFuture<JSONArray> getTopmostConceptsAsync(ConceptType thesaurusUri, String language) {
+        return CompletableFuture.supplyAsync( () -> getTopmostConcepts( thesaurusUri, language ), asyncExecutor );
+    }
+
+    public CompletableFuture<JSONArray> getRelatedConceptsAsync(String conceptUri, ConceptRelation relation, String language) {
+        return CompletableFuture.supplyAsync( () -> getRelatedConcepts( conceptUri, relation, language ), asyncExecutor );
+    }
+
+    public CompletableFuture<JSONArray> getAllConceptRelativesAsync(String conceptUri, ConceptRelation relation, String language) {
+        return CompletableFuture.supplyAsync( () -> getAllConceptRelatives( conceptUri, relation, language ), asyncExecutor );
+    }
+
+    /**
+     * @return future completed exceptionally if the request fails, see
+     *         {@link #fetchAllConceptRelatives(String, ConceptRelation, String)}
+     */
+    public CompletableFuture<JSONArray> fetchAllConceptRelativesAsync(String conceptUri, ConceptRelation relation, String language) {
+        return CompletableFuture.supplyAsync( () -> {
+            try {
+                return fetchAllConceptRelatives( conceptUri, relation, language );
+            } catch (Exception e) {
+                throw new CompletionException( e );
+            }
+        }, asyncExecutor );
+    }
+
+    /**
+     * Request the service or use cached response if caching is enabled. If
+     * not cached the response is taken from the store if enabled.
+     */
+    private Object request(GEMETRequestKey key, Callable<Object> loader) throws Exception {
+        Callable<Object> storeLoader = loader;
+        if (store != null) {
+            storeLoader = () -> store.get( key, loader );
         }
 
-        return result;
+        if (cache == null) {
+            return storeLoader.call();
+        }
+        return cache.get( key, storeLoader );
+    }
+
+    private Model requestRdfUrl(String url) throws Exception {
+        // read the RDF/XML file. We have to pass Accept header to get RDF
+        // response.
+        return transport.get( url, "application/rdf+xml", content -> {
+            // create an empty model
+            Model model = ModelFactory.createDefaultModel();
+            model.read( content, null );
+            return model;
+        } );
     }
 
     private Object requestJsonUrl(String url) throws Exception {
-        HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
-        HttpGet getMethod = new HttpGet( url );
-        getMethod.addHeader( "User-Agent", "Request-Promise" );
-        HttpResponse response = client.execute( getMethod );
-        String json = IOUtils.toString( response.getEntity().getContent(), "UTF-8" );
+        // parsed while streaming, only fields used for mapping are kept
+        Object json = transport.get( url, "application/json", GEMETJSONReader::read );
         if (log.isDebugEnabled()) {
             log.debug("response: {}", json);
         }
-        return new JSONParser().parse( json );
+        return json;
     }
 
     public boolean isConcept(String conceptUri) {
@@ -474,4 +683,24 @@ public class GEMETClient {
         return false;
 
     }
+
+    /**
+     * Creates daemon threads, so the async executor never blocks shutdown of
+     * the JVM.
+     */
+    private static class ClientThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger poolNumber = new AtomicInteger( 1 );
+
+        private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+        private final String namePrefix = "gemet-client-" + poolNumber.getAndIncrement() + "-";
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread( r, namePrefix + threadNumber.getAndIncrement() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
 }
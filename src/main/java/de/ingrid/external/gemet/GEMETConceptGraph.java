@@ -0,0 +1,534 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+import de.ingrid.external.gemet.GEMETClient.ConceptType;
+
+/**
+ * Hierarchy of GEMET held in primitive arrays. Concepts, groups and supergroups
+ * are numbered densely, the relations (broader, narrower, group, groupMember,
+ * related) are stored per relation in compressed sparse row format: the
+ * targets of node <code>id</code> are
+ * <code>targets[offsets[id]] ... targets[offsets[id + 1] - 1]</code>.
+ * <p>
+ * Nodes whose relations are not (all) known, e.g. targets of a refreshed node
+ * or if requests failed when refreshing, are marked as incomplete, see
+ * {@link #isComplete(int)}.
+ * <p>
+ * The graph is immutable, so it can be read by many threads without locking.
+ * Changes are done via a {@link Builder} copying the graph.
+ */
+public final class GEMETConceptGraph {
+
+    private static final ConceptType[] CONCEPT_TYPES = ConceptType.values();
+
+    private static final ConceptRelation[] CONCEPT_RELATIONS = ConceptRelation.values();
+
+    private static final int[] EMPTY = new int[0];
+
+    /** URIs of all nodes (concepts, groups, supergroups) by id */
+    private final String[] uris;
+
+    /** ordinal of ConceptType by id */
+    private final byte[] types;
+
+    private final Map<String, Integer> idByUri;
+
+    /** start of the targets of every id by ordinal of ConceptRelation */
+    private final int[][] offsets;
+
+    /** targets of all ids by ordinal of ConceptRelation */
+    private final int[][] targets;
+
+    /** ids of nodes with unknown relations, never changed */
+    private final BitSet incomplete;
+
+    private GEMETConceptGraph(String[] uris, byte[] types, int[][] offsets, int[][] targets, BitSet incomplete) {
+        this.uris = uris;
+        this.types = types;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.incomplete = incomplete;
+
+        this.idByUri = new HashMap<String, Integer>( uris.length * 2 );
+        for (int id = 0; id < uris.length; id++) {
+            idByUri.put( uris[id], id );
+        }
+    }
+
+    /** Number of nodes (concepts, groups, supergroups) */
+    public int size() {
+        return uris.length;
+    }
+
+    /**
+     * @return id of the node with the given URI or -1 if unknown
+     */
+    public int getId(String uri) {
+        if (uri == null) {
+            return -1;
+        }
+        Integer id = idByUri.get( uri );
+        return id == null ? -1 : id;
+    }
+
+    public String getUri(int id) {
+        return uris[id];
+    }
+
+    public ConceptType getType(int id) {
+        return CONCEPT_TYPES[types[id]];
+    }
+
+    /**
+     * @return false if the relations of the given node are not known (e.g.
+     *         request failed), then the service has to be asked for its
+     *         children and parents
+     */
+    public boolean isComplete(int id) {
+        return !incomplete.get( id );
+    }
+
+    /**
+     * @return ids of all nodes related to the given node via the given
+     *         relation
+     */
+    public int[] getRelated(int id, ConceptRelation relation) {
+        int[] relationOffsets = offsets[relation.ordinal()];
+        if (relationOffsets[id] == relationOffsets[id + 1]) {
+            return EMPTY;
+        }
+        return Arrays.copyOfRange( targets[relation.ordinal()], relationOffsets[id], relationOffsets[id + 1] );
+    }
+
+    public boolean hasRelation(int id, ConceptRelation relation) {
+        int[] relationOffsets = offsets[relation.ordinal()];
+        return relationOffsets[id + 1] > relationOffsets[id];
+    }
+
+    public boolean hasBroader(int id) {
+        return hasRelation( id, ConceptRelation.BROADER );
+    }
+
+    /**
+     * @return ids of all nodes of the given type, e.g. all supergroups
+     */
+    public int[] getAll(ConceptType type) {
+        int count = 0;
+        int[] result = new int[uris.length];
+        for (int id = 0; id < uris.length; id++) {
+            if (types[id] == type.ordinal()) {
+                result[count++] = id;
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+
+    /**
+     * Children of the given node like delivered by
+     * {@link GEMETClient#getChildConcepts(String, String)}. Children of a
+     * group are only those members having no broader concept !
+     */
+    public int[] getChildren(int id) {
+        if (types[id] != ConceptType.GROUP.ordinal()) {
+            return getRelated( id, ConceptRelation.NARROWER );
+        }
+
+        int[] memberOffsets = offsets[ConceptRelation.GROUP_MEMBER.ordinal()];
+        int[] members = targets[ConceptRelation.GROUP_MEMBER.ordinal()];
+        int[] result = new int[memberOffsets[id + 1] - memberOffsets[id]];
+        int count = 0;
+        for (int i = memberOffsets[id]; i < memberOffsets[id + 1]; i++) {
+            if (!hasBroader( members[i] )) {
+                result[count++] = members[i];
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf( result, count );
+    }
+
+    /**
+     * @return true if {@link #getChildren(int)} is not empty, without creating
+     *         the children array
+     */
+    public boolean hasChildren(int id) {
+        if (types[id] != ConceptType.GROUP.ordinal()) {
+            return hasRelation( id, ConceptRelation.NARROWER );
+        }
+
+        int[] memberOffsets = offsets[ConceptRelation.GROUP_MEMBER.ordinal()];
+        int[] members = targets[ConceptRelation.GROUP_MEMBER.ordinal()];
+        for (int i = memberOffsets[id]; i < memberOffsets[id + 1]; i++) {
+            if (!hasBroader( members[i] )) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parents of the given node like delivered by
+     * {@link GEMETClient#getParentConcepts(String, String)}: the broader nodes
+     * or the groups if no broader nodes.
+     */
+    public int[] getParents(int id) {
+        return hasBroader( id ) ? getRelated( id, ConceptRelation.BROADER ) : getRelated( id, ConceptRelation.GROUP );
+    }
+
+    /**
+     * @return first parent of the given node or -1 if top node
+     */
+    public int getFirstParent(int id) {
+        ConceptRelation relation = hasBroader( id ) ? ConceptRelation.BROADER : ConceptRelation.GROUP;
+        int[] relationOffsets = offsets[relation.ordinal()];
+        return relationOffsets[id] < relationOffsets[id + 1] ? targets[relation.ordinal()][relationOffsets[id]] : -1;
+    }
+
+    /**
+     * ONE path from the given node to the top following the first parent of
+     * every node. Stops on circular relations.
+     * 
+     * @return ids of the path starting with the given id, the last one is the
+     *         top node
+     */
+    public int[] getPathToTop(int id) {
+        int[] path = new int[8];
+        int length = 0;
+        int current = id;
+        while (current >= 0 && !contains( path, length, current )) {
+            if (length == path.length) {
+                path = Arrays.copyOf( path, length * 2 );
+            }
+            path[length++] = current;
+            current = getFirstParent( current );
+        }
+        return Arrays.copyOf( path, length );
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rough estimation of the heap used by the graph in bytes.
+     */
+    public long estimateHeapSize() {
+        long size = 0;
+        for (String uri : uris) {
+            size += 40 + uri.length() * 2L + 8;
+        }
+        size += types.length;
+        for (int rel = 0; rel < CONCEPT_RELATIONS.length; rel++) {
+            size += 32 + (offsets[rel].length + targets[rel].length) * 4L;
+        }
+        // map of URIs to ids
+        size += uris.length * 48L;
+        size += incomplete.size() / 8;
+        return size;
+    }
+
+    /**
+     * Write graph in binary format, read via {@link #read(DataInputStream)}.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt( uris.length );
+        for (int id = 0; id < uris.length; id++) {
+            out.writeUTF( uris[id] );
+            out.writeByte( types[id] );
+        }
+        for (int rel = 0; rel < CONCEPT_RELATIONS.length; rel++) {
+            writeInts( out, offsets[rel] );
+            writeInts( out, targets[rel] );
+        }
+        writeInts( out, incomplete.stream().toArray() );
+    }
+
+    static GEMETConceptGraph read(DataInputStream in) throws IOException {
+        int nodeCount = in.readInt();
+        String[] uris = new String[nodeCount];
+        byte[] types = new byte[nodeCount];
+        for (int id = 0; id < nodeCount; id++) {
+            uris[id] = in.readUTF();
+            types[id] = in.readByte();
+        }
+        int[][] offsets = new int[CONCEPT_RELATIONS.length][];
+        int[][] targets = new int[CONCEPT_RELATIONS.length][];
+        for (int rel = 0; rel < CONCEPT_RELATIONS.length; rel++) {
+            offsets[rel] = readInts( in );
+            targets[rel] = readInts( in );
+            if (offsets[rel].length != nodeCount + 1 || offsets[rel][nodeCount] != targets[rel].length) {
+                throw new IOException( "Corrupt GEMET concept graph, relation " + CONCEPT_RELATIONS[rel] );
+            }
+        }
+        BitSet incomplete = new BitSet();
+        for (int id : readInts( in )) {
+            if (id < 0 || id >= nodeCount) {
+                throw new IOException( "Corrupt GEMET concept graph, incomplete node " + id );
+            }
+            incomplete.set( id );
+        }
+        return new GEMETConceptGraph( uris, types, offsets, targets, incomplete );
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt( values.length );
+        for (int value : values) {
+            out.writeInt( value );
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * @return type of the node with the given URI or null if no concept, group
+     *         or supergroup (e.g. a theme)
+     */
+    static ConceptType getConceptType(String uri) {
+        for (ConceptType type : CONCEPT_TYPES) {
+            if (uri.startsWith( type.toString() )) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the relation in the opposite direction, e.g. BROADER for
+     *         NARROWER
+     */
+    static ConceptRelation getInverse(ConceptRelation relation) {
+        switch (relation) {
+        case NARROWER:
+            return ConceptRelation.BROADER;
+        case BROADER:
+            return ConceptRelation.NARROWER;
+        case GROUP:
+            return ConceptRelation.GROUP_MEMBER;
+        case GROUP_MEMBER:
+            return ConceptRelation.GROUP;
+        default:
+            return relation;
+        }
+    }
+
+    /**
+     * Collects nodes and relations and creates the immutable graph. Every
+     * relation is added in both directions, duplicates are ignored and the
+     * order of adding is kept.
+     */
+    public static class Builder {
+
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+        private final List<String> uris = new ArrayList<String>();
+
+        /** targets by ordinal of ConceptRelation and id */
+        private final List<List<IntList>> adjacency = new ArrayList<List<IntList>>();
+
+        private final BitSet incomplete = new BitSet();
+
+        public Builder() {
+            for (int rel = 0; rel < CONCEPT_RELATIONS.length; rel++) {
+                adjacency.add( new ArrayList<IntList>() );
+            }
+        }
+
+        /**
+         * Start with all nodes and relations of the given graph, e.g. to
+         * refresh single nodes. The given graph is not changed.
+         */
+        public Builder(GEMETConceptGraph graph) {
+            this();
+            for (int id = 0; id < graph.size(); id++) {
+                addNode( graph.getUri( id ) );
+            }
+            for (int rel = 0; rel < CONCEPT_RELATIONS.length; rel++) {
+                int[] relationOffsets = graph.offsets[rel];
+                for (int id = 0; id < graph.size(); id++) {
+                    IntList list = adjacency.get( rel ).get( id );
+                    for (int i = relationOffsets[id]; i < relationOffsets[id + 1]; i++) {
+                        list.add( graph.targets[rel][i] );
+                    }
+                }
+            }
+            incomplete.or( graph.incomplete );
+        }
+
+        /**
+         * @return id of the node with the given URI, added if not present yet
+         * @throws IllegalArgumentException
+         *             if the URI is no concept, group or supergroup
+         */
+        public int addNode(String uri) {
+            Integer id = ids.get( uri );
+            if (id == null) {
+                if (getConceptType( uri ) == null) {
+                    throw new IllegalArgumentException( "No GEMET concept, group or supergroup: " + uri );
+                }
+                id = uris.size();
+                ids.put( uri, id );
+                uris.add( uri );
+                for (List<IntList> relationAdjacency : adjacency) {
+                    relationAdjacency.add( new IntList() );
+                }
+            }
+            return id;
+        }
+
+        public boolean containsNode(String uri) {
+            return ids.containsKey( uri );
+        }
+
+        /**
+         * Mark the given node as incomplete if its relations could not be
+         * fetched, nodes are complete by default.
+         */
+        public void setComplete(String uri, boolean complete) {
+            incomplete.set( addNode( uri ), !complete );
+        }
+
+        /**
+         * Add the relation and the inverse relation, e.g. "narrower" and
+         * "broader".
+         */
+        public void addRelation(String sourceUri, ConceptRelation relation, String targetUri) {
+            addRelation( addNode( sourceUri ), relation, addNode( targetUri ) );
+        }
+
+        private void addRelation(int source, ConceptRelation relation, int target) {
+            adjacency.get( relation.ordinal() ).get( source ).addIfAbsent( target );
+            adjacency.get( getInverse( relation ).ordinal() ).get( target ).addIfAbsent( source );
+        }
+
+        /**
+         * Replace all relations of the given type starting at the given node
+         * (and their inverse relations) with the given targets.
+         */
+        public void setRelations(String sourceUri, ConceptRelation relation, List<String> targetUris) {
+            int source = addNode( sourceUri );
+            IntList oldTargets = adjacency.get( relation.ordinal() ).get( source );
+            List<IntList> inverseAdjacency = adjacency.get( getInverse( relation ).ordinal() );
+            for (int i = 0; i < oldTargets.size; i++) {
+                inverseAdjacency.get( oldTargets.values[i] ).remove( source );
+            }
+            oldTargets.clear();
+
+            for (String targetUri : targetUris) {
+                addRelation( source, relation, addNode( targetUri ) );
+            }
+        }
+
+        public GEMETConceptGraph build() {
+            int nodeCount = uris.size();
+
+            byte[] types = new byte[nodeCount];
+            for (int id = 0; id < nodeCount; id++) {
+                types[id] = (byte) getConceptType( uris.get( id ) ).ordinal();
+            }
+
+            int[][] offsets = new int[CONCEPT_RELATIONS.length][];
+            int[][] targets = new int[CONCEPT_RELATIONS.length][];
+            for (int rel = 0; rel < CONCEPT_RELATIONS.length; rel++) {
+                List<IntList> relationAdjacency = adjacency.get( rel );
+                int[] relationOffsets = new int[nodeCount + 1];
+                for (int id = 0; id < nodeCount; id++) {
+                    relationOffsets[id + 1] = relationOffsets[id] + relationAdjacency.get( id ).size;
+                }
+                int[] relationTargets = new int[relationOffsets[nodeCount]];
+                for (int id = 0; id < nodeCount; id++) {
+                    IntList list = relationAdjacency.get( id );
+                    System.arraycopy( list.values, 0, relationTargets, relationOffsets[id], list.size );
+                }
+                offsets[rel] = relationOffsets;
+                targets[rel] = relationTargets;
+            }
+
+            return new GEMETConceptGraph( uris.toArray( new String[nodeCount] ), types, offsets, targets, (BitSet) incomplete.clone() );
+        }
+    }
+
+    /**
+     * Growing int array, keeps order of adding.
+     */
+    private static class IntList {
+
+        int[] values = EMPTY;
+
+        int size;
+
+        void addIfAbsent(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    return;
+                }
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf( values, Math.max( 4, size * 2 ) );
+            }
+            values[size++] = value;
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf( values, Math.max( 4, size * 2 ) );
+            }
+            values[size++] = value;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    System.arraycopy( values, i + 1, values, i, size - i - 1 );
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            values = EMPTY;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+import de.ingrid.external.gemet.GEMETClient.ConceptType;
+
+/**
+ * Creates and refreshes a {@link GEMETConceptGraph} via requests to the GEMET
+ * service.
+ */
+public class GEMETConceptGraphLoader {
+
+    private final static Logger log = LogManager.getLogger( GEMETConceptGraphLoader.class );
+
+    /** attempts of a request when crawling before loading fails */
+    static final int MAX_ATTEMPTS = 3;
+
+    private static final ConceptRelation[] CONCEPT_RELATIONS = ConceptRelation.values();
+
+    private final GEMETClient gemetClient;
+
+    /** language of the requests, relations do not depend on it */
+    private final String language;
+
+    /** pause before repeating failed requests, multiplied with the attempt */
+    long retryDelayMillis = 1000;
+
+    public GEMETConceptGraphLoader(GEMETClient gemetClient, String language) {
+        this.gemetClient = gemetClient;
+        this.language = language;
+    }
+
+    /**
+     * Crawl the hierarchy level by level from the topmost supergroups down
+     * via "narrower" and "groupMember" relations. The requests of one level
+     * are executed in parallel, failed requests are repeated. If children
+     * still could not be fetched no graph is created, a graph with missing
+     * subtrees would deliver wrong hierarchies (e.g. concepts without their
+     * broader concept). "related" relations are not crawled, those are added
+     * via {@link #refresh(GEMETConceptGraph, String)}.
+     * 
+     * @return graph of all supergroups, groups and concepts
+     * @throws IllegalStateException
+     *             if the supergroups or children of a node could not be
+     *             fetched
+     */
+    public GEMETConceptGraph load() {
+        long startTime = System.currentTimeMillis();
+        GEMETConceptGraph.Builder builder = new GEMETConceptGraph.Builder();
+
+        Set<String> visited = new HashSet<String>();
+        List<String> level = new ArrayList<String>();
+        for (Object superGroup : gemetClient.getTopmostConcepts( ConceptType.SOUPERGROUP, language )) {
+            String uri = JSONUtils.getId( (JSONObject) superGroup );
+            if (visited.add( uri )) {
+                builder.addNode( uri );
+                level.add( uri );
+            }
+        }
+        if (level.isEmpty()) {
+            throw new IllegalStateException( "No GEMET supergroups fetched, we do not create concept graph !" );
+        }
+
+        int requestCount = 1;
+        while (!level.isEmpty()) {
+            List<ConceptRelation> relations = new ArrayList<ConceptRelation>();
+            for (String uri : level) {
+                relations.add( getChildRelation( uri ) );
+            }
+            JSONArray[] results = new JSONArray[level.size()];
+            requestCount += fetchRelatives( level, relations, results, MAX_ATTEMPTS );
+
+            List<String> nextLevel = new ArrayList<String>();
+            for (int i = 0; i < level.size(); i++) {
+                String uri = level.get( i );
+                if (results[i] == null) {
+                    throw new IllegalStateException( "Problems fetching children of " + uri + " after " + MAX_ATTEMPTS
+                            + " attempts, we do not create concept graph !" );
+                }
+                for (String target : getTargets( results[i] )) {
+                    builder.addRelation( uri, relations.get( i ), target );
+                    if (visited.add( target )) {
+                        nextLevel.add( target );
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+
+        GEMETConceptGraph graph = builder.build();
+        log.info( "Loaded GEMET concept graph with {} concepts/groups via {} requests in {} ms, estimated heap: {} KB", graph.size(), requestCount,
+                System.currentTimeMillis() - startTime, graph.estimateHeapSize() / 1024 );
+        return graph;
+    }
+
+    /**
+     * Fetch all relations of the given node and replace them in a copy of
+     * the given graph, see {@link #fetch(String)} and
+     * {@link #apply(GEMETConceptGraph, NodeRelations)}.
+     * 
+     * @param graph
+     *            the current graph, pass null to start a new one
+     * @param uri
+     *            concept, group or supergroup to refresh, may be unknown in
+     *            the current graph
+     * @return the new graph or the given one if the node is not confirmed
+     *         by GEMET
+     */
+    public GEMETConceptGraph refresh(GEMETConceptGraph graph, String uri) {
+        NodeRelations relations = fetch( uri );
+        return relations == null ? graph : apply( graph, relations );
+    }
+
+    /**
+     * Fetch all relations of the given node in parallel, no graph is needed,
+     * so this can be called without locking.
+     * 
+     * @param uri
+     *            concept, group or supergroup
+     * @return the fetched relations or null if GEMET does not confirm the
+     *         node (unknown or all requests failed)
+     */
+    public NodeRelations fetch(String uri) {
+        if (GEMETConceptGraph.getConceptType( uri ) == null) {
+            log.warn( "No GEMET concept, group or supergroup ({}), we do not refresh graph !", uri );
+            return null;
+        }
+
+        List<String> uris = new ArrayList<String>();
+        for (int i = 0; i < CONCEPT_RELATIONS.length; i++) {
+            uris.add( uri );
+        }
+        JSONArray[] results = new JSONArray[CONCEPT_RELATIONS.length];
+        fetchRelatives( uris, Arrays.asList( CONCEPT_RELATIONS ), results, 1 );
+
+        NodeRelations relations = new NodeRelations( uri );
+        boolean confirmed = false;
+        for (int i = 0; i < CONCEPT_RELATIONS.length; i++) {
+            if (results[i] != null) {
+                relations.targets.set( i, getTargets( results[i] ) );
+                confirmed |= !relations.targets.get( i ).isEmpty();
+            }
+        }
+
+        // every node has relations, only ask for the node itself if none
+        if (!confirmed && !existsInService( uri )) {
+            if (log.isDebugEnabled()) {
+                log.debug( "{} not confirmed by GEMET, we do not refresh graph", uri );
+            }
+            return null;
+        }
+        return relations;
+    }
+
+    /**
+     * Replace the fetched relations of the node in a copy of the given graph.
+     * The given graph is not changed, so it can still be used while
+     * refreshing. The node is marked as incomplete if requests failed, added
+     * targets are marked as incomplete, their relations are not fetched.
+     * 
+     * @param graph
+     *            the current graph, pass null to start a new one
+     * @return the new graph
+     */
+    public GEMETConceptGraph apply(GEMETConceptGraph graph, NodeRelations relations) {
+        GEMETConceptGraph.Builder builder = graph == null ? new GEMETConceptGraph.Builder() : new GEMETConceptGraph.Builder( graph );
+        builder.addNode( relations.uri );
+        for (int i = 0; i < CONCEPT_RELATIONS.length; i++) {
+            List<String> targets = relations.targets.get( i );
+            if (targets == null) {
+                continue;
+            }
+            for (String target : targets) {
+                if (!builder.containsNode( target )) {
+                    builder.setComplete( target, false );
+                }
+            }
+            builder.setRelations( relations.uri, CONCEPT_RELATIONS[i], targets );
+        }
+        builder.setComplete( relations.uri, relations.isComplete() );
+
+        if (log.isDebugEnabled()) {
+            log.debug( "Refreshed {} in GEMET concept graph", relations.uri );
+        }
+        return builder.build();
+    }
+
+    /**
+     * Request the relatives of all given nodes in parallel, failed requests
+     * are repeated until the given number of attempts.
+     * 
+     * @param uris
+     *            the nodes
+     * @param relations
+     *            the relation to request per node
+     * @param results
+     *            gets the relatives in order of the nodes, null if failed
+     * @return number of requests
+     */
+    private int fetchRelatives(List<String> uris, List<ConceptRelation> relations, JSONArray[] results, int maxAttempts) {
+        int requestCount = 0;
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < uris.size(); i++) {
+            pending.add( i );
+        }
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            List<CompletableFuture<JSONArray>> requests = new ArrayList<CompletableFuture<JSONArray>>();
+            for (int i : pending) {
+                requests.add( gemetClient.fetchAllConceptRelativesAsync( uris.get( i ), relations.get( i ), language ) );
+            }
+            requestCount += requests.size();
+
+            List<Integer> failed = new ArrayList<Integer>();
+            for (int j = 0; j < pending.size(); j++) {
+                try {
+                    results[pending.get( j )] = requests.get( j ).join();
+                } catch (CompletionException ex) {
+                    failed.add( pending.get( j ) );
+                }
+            }
+            if (failed.isEmpty() || attempt >= maxAttempts || !pause( attempt * retryDelayMillis )) {
+                break;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug( "Repeating {} failed requests of GEMET concept graph, attempt {}", failed.size(), attempt + 1 );
+            }
+            pending = failed;
+        }
+        return requestCount;
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    private static boolean pause(long millis) {
+        try {
+            Thread.sleep( millis );
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean existsInService(String uri) {
+        try {
+            JSONObject concept = gemetClient.fetchConcept( uri, language );
+            return concept != null && JSONUtils.getId( concept ) != null;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the targets of the given relatives being concepts, groups or
+     *         supergroups
+     */
+    private static List<String> getTargets(JSONArray relatives) {
+        List<String> targets = new ArrayList<String>();
+        for (Object relative : relatives) {
+            String target = JSONUtils.getTarget( (JSONObject) relative );
+            if (target != null && GEMETConceptGraph.getConceptType( target ) != null) {
+                targets.add( target );
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * @return relation to the children, "groupMember" for groups otherwise
+     *         "narrower"
+     */
+    private ConceptRelation getChildRelation(String uri) {
+        return gemetClient.isGroup( uri ) ? ConceptRelation.GROUP_MEMBER : ConceptRelation.NARROWER;
+    }
+
+    /**
+     * Relations of one node fetched via {@link GEMETConceptGraphLoader#fetch(String)}.
+     */
+    public static class NodeRelations {
+
+        private final String uri;
+
+        /** targets by ordinal of ConceptRelation, null if request failed */
+        private final List<List<String>> targets;
+
+        NodeRelations(String uri) {
+            this.uri = uri;
+            this.targets = new ArrayList<List<String>>( Collections.nCopies( CONCEPT_RELATIONS.length, (List<String>) null ) );
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return false if any relation could not be fetched
+         */
+        public boolean isComplete() {
+            for (List<String> relationTargets : targets) {
+                if (relationTargets == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
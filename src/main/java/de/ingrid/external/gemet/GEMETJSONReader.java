@@ -0,0 +1,312 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Streaming parser of GEMET JSON responses. Reads directly from the response
+ * stream without building the whole response as String and only keeps the
+ * fields used when mapping (uri, thesaurus, preferredLabel with string and
+ * language, source, relation, target). Values of other fields (e.g.
+ * definitions) are skipped without creating objects. Delivers json-simple
+ * objects like JSONParser, so cached and stored responses stay the same.
+ */
+public class GEMETJSONReader {
+
+    /** fields kept, all others are skipped */
+    private static final String[] FIELDS = { "uri", "thesaurus", "preferredLabel", "string", "language", "source", "relation", "target" };
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[8192];
+
+    private int position;
+
+    private int limit;
+
+    /** characters read before buffer, for error messages */
+    private long offset;
+
+    private final StringBuilder text = new StringBuilder( 128 );
+
+    private GEMETJSONReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Parse UTF-8 JSON from the given stream, the stream is not closed.
+     * 
+     * @return JSONObject, JSONArray, String, Long, Double, Boolean or null
+     */
+    public static Object read(InputStream in) throws IOException {
+        return read( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Parse JSON from the given reader, the reader is not closed.
+     * 
+     * @return JSONObject, JSONArray, String, Long, Double, Boolean or null
+     */
+    public static Object read(Reader reader) throws IOException {
+        GEMETJSONReader jsonReader = new GEMETJSONReader( reader );
+        Object result = jsonReader.readValue( true );
+        if (jsonReader.nextToken() != -1) {
+            throw jsonReader.error( "end of input" );
+        }
+        return result;
+    }
+
+    /**
+     * @param keep
+     *            false if value is skipped, then null is returned
+     */
+    private Object readValue(boolean keep) throws IOException {
+        int c = nextToken();
+        switch (c) {
+        case '{':
+            return readObject( keep );
+        case '[':
+            return readArray( keep );
+        case '"':
+            return readString( keep );
+        case 't':
+            expect( "rue" );
+            return keep ? Boolean.TRUE : null;
+        case 'f':
+            expect( "alse" );
+            return keep ? Boolean.FALSE : null;
+        case 'n':
+            expect( "ull" );
+            return null;
+        default:
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return readNumber( (char) c, keep );
+            }
+            throw error( "value" );
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject readObject(boolean keep) throws IOException {
+        JSONObject result = keep ? new JSONObject() : null;
+        int c = nextToken();
+        if (c == '}') {
+            return result;
+        }
+        while (true) {
+            if (c != '"') {
+                throw error( "field name" );
+            }
+            readString( false );
+            String field = keep ? getField() : null;
+            if (nextToken() != ':') {
+                throw error( "':'" );
+            }
+            Object value = readValue( field != null );
+            if (field != null) {
+                result.put( field, value );
+            }
+
+            c = nextToken();
+            if (c == '}') {
+                return result;
+            }
+            if (c != ',') {
+                throw error( "',' or '}'" );
+            }
+            c = nextToken();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONArray readArray(boolean keep) throws IOException {
+        JSONArray result = keep ? new JSONArray() : null;
+        int c = nextToken();
+        if (c == ']') {
+            return result;
+        }
+        if (c == -1) {
+            throw error( "value" );
+        }
+        pushBack();
+        while (true) {
+            Object value = readValue( keep );
+            if (keep) {
+                result.add( value );
+            }
+
+            c = nextToken();
+            if (c == ']') {
+                return result;
+            }
+            if (c != ',') {
+                throw error( "',' or ']'" );
+            }
+        }
+    }
+
+    /**
+     * Read string after opening quote into text.
+     * 
+     * @return the string if keep, else null
+     */
+    private String readString(boolean keep) throws IOException {
+        text.setLength( 0 );
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return keep ? text.toString() : null;
+            }
+            if (c == -1) {
+                throw error( "'\"'" );
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                case 'b':
+                    c = '\b';
+                    break;
+                case 'f':
+                    c = '\f';
+                    break;
+                case 'n':
+                    c = '\n';
+                    break;
+                case 'r':
+                    c = '\r';
+                    break;
+                case 't':
+                    c = '\t';
+                    break;
+                case 'u':
+                    c = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit( read(), 16 );
+                        if (digit < 0) {
+                            throw error( "hex digit" );
+                        }
+                        c = c * 16 + digit;
+                    }
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    break;
+                default:
+                    throw error( "escape character" );
+                }
+            }
+            text.append( (char) c );
+        }
+    }
+
+    private Object readNumber(char first, boolean keep) throws IOException {
+        text.setLength( 0 );
+        text.append( first );
+        boolean decimal = false;
+        while (true) {
+            int c = read();
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+                text.append( (char) c );
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+                text.append( (char) c );
+            } else {
+                if (c != -1) {
+                    pushBack();
+                }
+                break;
+            }
+        }
+        if (!keep) {
+            return null;
+        }
+        try {
+            return decimal ? (Object) Double.valueOf( text.toString() ) : (Object) Long.valueOf( text.toString() );
+        } catch (NumberFormatException e) {
+            throw error( "number" );
+        }
+    }
+
+    /**
+     * @return field name constant equal to the text or null if the field is
+     *         skipped
+     */
+    private String getField() {
+        for (String field : FIELDS) {
+            if (field.contentEquals( text )) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private void expect(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt( i )) {
+                throw error( "literal" );
+            }
+        }
+    }
+
+    /**
+     * @return next character which is no whitespace or -1 at end
+     */
+    private int nextToken() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            offset += limit;
+            limit = reader.read( buffer, 0, buffer.length );
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    /** unread last character, only once after {@link #read()} */
+    private void pushBack() {
+        position--;
+    }
+
+    private IOException error(String expected) {
+        return new IOException( "Invalid JSON, expected " + expected + " at position " + (offset + position) );
+    }
+}
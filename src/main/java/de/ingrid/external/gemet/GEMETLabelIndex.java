@@ -0,0 +1,349 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+
+import de.ingrid.external.gemet.GEMETClient.MatchingConceptsSearchMode;
+
+/**
+ * Index of the preferred and alternate labels of all concepts in one language
+ * for keyword search like
+ * {@link GEMETClient#getConceptsMatchingKeyword(String, String, MatchingConceptsSearchMode)}.
+ * Labels are folded (case, unicode normalization) with the locale of the
+ * language.
+ * <ul>
+ * <li>EXACT and BEGINS_WITH: binary search in the sorted labels</li>
+ * <li>ENDS_WITH: binary search in the sorted reversed labels</li>
+ * <li>CONTAINS: intersection of the trigram posting lists, then verified</li>
+ * <li>CHECK_ALL: first non empty result of EXACT, BEGINS_WITH, ENDS_WITH and
+ * CONTAINS like the GEMET service</li>
+ * </ul>
+ */
+public class GEMETLabelIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Locale locale;
+
+    /** folded labels, sorted */
+    private final String[] labels;
+
+    /** concept id of every label */
+    private final int[] conceptIds;
+
+    /** folded labels reversed, sorted */
+    private final String[] reversedLabels;
+
+    /** index into labels of every reversed label */
+    private final int[] reversedEntries;
+
+    /** all trigrams of the labels, sorted */
+    private final long[] trigrams;
+
+    /**
+     * start of the posting list of every trigram, the labels containing
+     * <code>trigrams[t]</code> are
+     * <code>postings[postingOffsets[t]] ... postings[postingOffsets[t + 1] - 1]</code>
+     */
+    private final int[] postingOffsets;
+
+    /** sorted indices into labels per trigram */
+    private final int[] postings;
+
+    /** number of concept ids, for result bit sets */
+    private final int idCount;
+
+    /**
+     * @param labelsById
+     *            labels of every concept id, null if none
+     * @param locale
+     *            used for case folding of labels and queries
+     */
+    public GEMETLabelIndex(String[][] labelsById, Locale locale) {
+        this.locale = locale;
+        this.idCount = labelsById.length;
+
+        // entries (folded label, id) sorted by label
+        int count = 0;
+        for (String[] idLabels : labelsById) {
+            count += idLabels == null ? 0 : idLabels.length;
+        }
+        String[] entryLabels = new String[count];
+        int[] entryIds = new int[count];
+        int entry = 0;
+        for (int id = 0; id < labelsById.length; id++) {
+            if (labelsById[id] != null) {
+                for (String label : labelsById[id]) {
+                    entryLabels[entry] = fold( label );
+                    entryIds[entry++] = id;
+                }
+            }
+        }
+        Integer[] order = sortedOrder( entryLabels );
+        this.labels = new String[count];
+        this.conceptIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            labels[i] = entryLabels[order[i]];
+            conceptIds[i] = entryIds[order[i]];
+        }
+
+        // reversed labels for suffix search
+        for (int i = 0; i < count; i++) {
+            entryLabels[i] = new StringBuilder( labels[i] ).reverse().toString();
+        }
+        order = sortedOrder( entryLabels );
+        this.reversedLabels = new String[count];
+        this.reversedEntries = new int[count];
+        for (int i = 0; i < count; i++) {
+            reversedLabels[i] = entryLabels[order[i]];
+            reversedEntries[i] = order[i];
+        }
+
+        // distinct trigrams of all labels
+        int trigramCount = 0;
+        for (String label : labels) {
+            trigramCount += Math.max( 0, label.length() - 2 );
+        }
+        long[] allTrigrams = new long[trigramCount];
+        trigramCount = 0;
+        for (String label : labels) {
+            for (int pos = 0; pos + 3 <= label.length(); pos++) {
+                allTrigrams[trigramCount++] = trigram( label, pos );
+            }
+        }
+        Arrays.sort( allTrigrams );
+        int distinctCount = 0;
+        for (int i = 0; i < allTrigrams.length; i++) {
+            if (i == 0 || allTrigrams[i] != allTrigrams[i - 1]) {
+                allTrigrams[distinctCount++] = allTrigrams[i];
+            }
+        }
+        this.trigrams = Arrays.copyOf( allTrigrams, distinctCount );
+
+        // posting lists in compressed sparse row format, counted first,
+        // entries are added in ascending order, once per label
+        this.postingOffsets = new int[distinctCount + 1];
+        int[] lastEntries = new int[distinctCount];
+        Arrays.fill( lastEntries, -1 );
+        for (int i = 0; i < count; i++) {
+            for (int pos = 0; pos + 3 <= labels[i].length(); pos++) {
+                int t = Arrays.binarySearch( trigrams, trigram( labels[i], pos ) );
+                if (lastEntries[t] != i) {
+                    lastEntries[t] = i;
+                    postingOffsets[t + 1]++;
+                }
+            }
+        }
+        for (int t = 0; t < distinctCount; t++) {
+            postingOffsets[t + 1] += postingOffsets[t];
+        }
+        this.postings = new int[postingOffsets[distinctCount]];
+        int[] fill = Arrays.copyOf( postingOffsets, distinctCount );
+        Arrays.fill( lastEntries, -1 );
+        for (int i = 0; i < count; i++) {
+            for (int pos = 0; pos + 3 <= labels[i].length(); pos++) {
+                int t = Arrays.binarySearch( trigrams, trigram( labels[i], pos ) );
+                if (lastEntries[t] != i) {
+                    lastEntries[t] = i;
+                    postings[fill[t]++] = i;
+                }
+            }
+        }
+    }
+
+    /** Number of indexed labels */
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * Fold the given text like the indexed labels: unicode normalization and
+     * lower case in the locale of the index.
+     */
+    public String fold(String text) {
+        return fold( text, locale );
+    }
+
+    static String fold(String text, Locale locale) {
+        return Normalizer.normalize( text, Normalizer.Form.NFC ).toLowerCase( locale );
+    }
+
+    /**
+     * Find concepts having a label matching the given keyword, ignoring case.
+     * 
+     * @return distinct concept ids ordered by matching label
+     */
+    public int[] find(String keyword, MatchingConceptsSearchMode searchMode) {
+        if (keyword == null || keyword.trim().length() == 0) {
+            return EMPTY;
+        }
+        String search = fold( keyword.trim() );
+
+        if (searchMode == MatchingConceptsSearchMode.CHECK_ALL) {
+            // like GEMET: the first search mode finding concepts wins
+            for (MatchingConceptsSearchMode mode : new MatchingConceptsSearchMode[] { MatchingConceptsSearchMode.EXACT,
+                    MatchingConceptsSearchMode.BEGINS_WITH, MatchingConceptsSearchMode.ENDS_WITH, MatchingConceptsSearchMode.CONTAINS }) {
+                int[] result = findFolded( search, mode );
+                if (result.length > 0) {
+                    return result;
+                }
+            }
+            return EMPTY;
+        }
+        return findFolded( search, searchMode );
+    }
+
+    private int[] findFolded(String search, MatchingConceptsSearchMode searchMode) {
+        switch (searchMode) {
+        case EXACT:
+            return toConceptIds( prefixRange( labels, search, true ), null );
+        case BEGINS_WITH:
+            return toConceptIds( prefixRange( labels, search, false ), null );
+        case ENDS_WITH:
+            return toConceptIds( prefixRange( reversedLabels, new StringBuilder( search ).reverse().toString(), false ), reversedEntries );
+        default:
+            return findContaining( search );
+        }
+    }
+
+    private int[] findContaining(String search) {
+        int[] candidates = null;
+        if (search.length() >= 3) {
+            for (int pos = 0; pos + 3 <= search.length(); pos++) {
+                int t = Arrays.binarySearch( trigrams, trigram( search, pos ) );
+                if (t < 0) {
+                    return EMPTY;
+                }
+                candidates = candidates == null ? Arrays.copyOfRange( postings, postingOffsets[t], postingOffsets[t + 1] )
+                        : intersect( candidates, postings, postingOffsets[t], postingOffsets[t + 1] );
+                if (candidates.length == 0) {
+                    return EMPTY;
+                }
+            }
+        }
+
+        // verify candidates, short queries check all labels
+        int count = candidates == null ? labels.length : candidates.length;
+        int[] matches = new int[count];
+        int matchCount = 0;
+        for (int i = 0; i < count; i++) {
+            int entry = candidates == null ? i : candidates[i];
+            if (labels[entry].contains( search )) {
+                matches[matchCount++] = entry;
+            }
+        }
+        return toConceptIds( new int[] { 0, matchCount }, Arrays.copyOf( matches, matchCount ) );
+    }
+
+    /**
+     * @return range [from, to) of the sorted values starting with (or equal
+     *         to) the search
+     */
+    private static int[] prefixRange(String[] sortedValues, String search, boolean exact) {
+        int from = lowerBound( sortedValues, search );
+        int to = from;
+        while (to < sortedValues.length && (exact ? sortedValues[to].equals( search ) : sortedValues[to].startsWith( search ))) {
+            to++;
+        }
+        return new int[] { from, to };
+    }
+
+    private static int lowerBound(String[] sortedValues, String search) {
+        int low = 0;
+        int high = sortedValues.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedValues[mid].compareTo( search ) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param range
+     *            range of entries
+     * @param entries
+     *            maps range positions to label indices, null if range
+     *            contains label indices
+     * @return distinct concept ids of the labels in the range
+     */
+    private int[] toConceptIds(int[] range, int[] entries) {
+        int[] result = new int[range[1] - range[0]];
+        int count = 0;
+        BitSet seen = new BitSet( idCount );
+        for (int i = range[0]; i < range[1]; i++) {
+            int id = conceptIds[entries == null ? i : entries[i]];
+            if (!seen.get( id )) {
+                seen.set( id );
+                result[count++] = id;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf( result, count );
+    }
+
+    /**
+     * @return values of a also contained in b[from] ... b[to - 1], both
+     *         sorted
+     */
+    private static int[] intersect(int[] a, int[] b, int from, int to) {
+        int[] result = new int[Math.min( a.length, to - from )];
+        int count = 0;
+        int i = 0;
+        int j = from;
+        while (i < a.length && j < to) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+
+    /**
+     * @return indices of the given values in sorted order of the values
+     */
+    private static Integer[] sortedOrder(String[] values) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort( order, (a, b) -> values[a].compareTo( values[b] ) );
+        return order;
+    }
+
+    private static long trigram(String text, int pos) {
+        return ((long) text.charAt( pos ) << 32) | ((long) text.charAt( pos + 1 ) << 16) | text.charAt( pos + 2 );
+    }
+}
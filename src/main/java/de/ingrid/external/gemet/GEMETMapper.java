@@ -24,8 +24,10 @@ package de.ingrid.external.gemet;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import org.apache.jena.rdf.model.Resource;
 import org.apache.logging.log4j.LogManager;
@@ -34,6 +36,7 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+import de.ingrid.external.gemet.GEMETClient.ConceptType;
 import de.ingrid.external.om.RelatedTerm;
 import de.ingrid.external.om.RelatedTerm.RelationType;
 import de.ingrid.external.om.Term;
@@ -64,35 +67,69 @@ public class GEMETMapper {
      * @return mapped API Terms
      */
     public List<Term> mapToTermsWithKeywordsFilter(List<JSONArray> jsonArrayList, String[] keywordsFilter, Locale locale) {
-        List<Term> resultList = new ArrayList<Term>();
+        List<Term> termList = new ArrayList<Term>();
 
         for (JSONArray jsonArray : jsonArrayList) {
             Iterator<JSONObject> iterator = jsonArray.iterator();
             while (iterator.hasNext()) {
-                Term myTerm = mapToTerm( iterator.next() );
+                termList.add( mapToTerm( iterator.next() ) );
+            }
+        }
 
-                boolean addTerm = true;
+        return filterTermsWithKeywords( termList, keywordsFilter, locale );
+    }
 
-                // check whether term contains all keywords if keywords passed !
-                if (keywordsFilter != null) {
-                    for (String keywordFilter : keywordsFilter) {
-                        if (!myTerm.getName().toLowerCase( locale ).contains( keywordFilter.trim().toLowerCase( locale ) )) {
-                            addTerm = false;
-                            break;
-                        }
-                    }
-                }
+    /**
+     * Only keep terms containing keywords and remove duplicates (same id).
+     * 
+     * @param terms
+     *            mapped API Terms
+     * @param keywordsFilter
+     *            filter terms: only use terms containing all keywords. Pass
+     *            null if no filter.
+     * @param locale
+     *            only used when filtering
+     * @return filtered API Terms
+     */
+    public List<Term> filterTermsWithKeywords(List<Term> terms, String[] keywordsFilter, Locale locale) {
+        // fold keywords only once
+        String[] keywords = null;
+        if (keywordsFilter != null) {
+            Locale caseLocale = locale != null ? locale : Locale.ROOT;
+            keywords = new String[keywordsFilter.length];
+            for (int i = 0; i < keywordsFilter.length; i++) {
+                keywords[i] = keywordsFilter[i].trim().toLowerCase( caseLocale );
+            }
+            locale = caseLocale;
+        }
 
-                // add term if not already present
-                if (addTerm) {
-                    if (!resultList.contains( myTerm )) {
-                        resultList.add( myTerm );
+        // remove duplicates via id, keep order
+        Map<String, Term> resultMap = new LinkedHashMap<String, Term>();
+        for (Term myTerm : terms) {
+            String key = myTerm.getId() != null ? myTerm.getId() : myTerm.getName();
+            if (resultMap.containsKey( key )) {
+                continue;
+            }
+
+            // check whether term contains all keywords if keywords passed !
+            if (keywords != null) {
+                String name = myTerm.getName() == null ? "" : myTerm.getName().toLowerCase( locale );
+                boolean addTerm = true;
+                for (String keyword : keywords) {
+                    if (!name.contains( keyword )) {
+                        addTerm = false;
+                        break;
                     }
                 }
+                if (!addTerm) {
+                    continue;
+                }
             }
+
+            resultMap.put( key, myTerm );
         }
 
-        return resultList;
+        return new ArrayList<Term>( resultMap.values() );
     }
 
     public List<RelatedTerm> mapToRelatedTerms(JSONArray jsonArray, ConceptRelation conceptRelation) {
@@ -123,6 +160,27 @@ public class GEMETMapper {
         return outTerm;
     }
 
+    /**
+     * Creates an InGrid RelatedTerm from a node of the local snapshot.
+     * 
+     * @param snapshot
+     *            the local snapshot
+     * @param id
+     *            id of the node in the snapshot
+     * @param language
+     *            language of the name
+     * @param conceptRelation
+     *            the relation type from GEMET API
+     * @return the InGrid API RelatedTerm
+     */
+    public RelatedTerm mapToRelatedTerm(GEMETSnapshot snapshot, int id, String language, ConceptRelation conceptRelation) {
+        RelatedTerm outTerm = new RelatedTermImpl();
+        mapToTerm( snapshot, id, language, outTerm );
+        outTerm.setRelationType( getRelationTypeFromConceptRelation( conceptRelation ) );
+
+        return outTerm;
+    }
+
     /**
      * Create an InGrid API TreeTerm.
      * 
@@ -149,6 +207,31 @@ public class GEMETMapper {
         return outTerm;
     }
 
+    /**
+     * Create an InGrid API TreeTerm from a node of the local snapshot without
+     * parents and children.
+     */
+    public TreeTerm mapToTreeTerm(GEMETSnapshot snapshot, int id, String language) {
+        TreeTerm outTerm = new TreeTermImpl();
+        mapToTerm( snapshot, id, language, outTerm );
+
+        return outTerm;
+    }
+
+    public TreeTerm addParentToTreeTerm(TreeTerm node, GEMETSnapshot snapshot, int parentId, String language) {
+        addParentTerm( node, mapToTreeTerm( snapshot, parentId, language ) );
+
+        return node;
+    }
+
+    public TreeTerm addChildrenToTreeTerm(TreeTerm node, GEMETSnapshot snapshot, int[] childIds, String language) {
+        for (int childId : childIds) {
+            addChildTerm( node, mapToTreeTerm( snapshot, childId, language ) );
+        }
+
+        return node;
+    }
+
     public TreeTerm addParentToTreeTerm(TreeTerm node, JSONObject parent) {
         return addToTreeTerm( node, JSONUtils.toJSONArray( parent ), true );
     }
@@ -231,6 +314,31 @@ public class GEMETMapper {
         return outTerm;
     }
 
+    /**
+     * Creates an InGrid Term from a node of the local snapshot.
+     * 
+     * @param snapshot
+     *            the local snapshot
+     * @param id
+     *            id of the node in the snapshot
+     * @param language
+     *            language to use
+     * @param alternateLanguage
+     *            map name in different language to alternateName. Pass null, if
+     *            no alternate language.
+     * @return the API term
+     */
+    public Term mapToTerm(GEMETSnapshot snapshot, int id, String language, String alternateLanguage) {
+        Term outTerm = new TermImpl();
+        mapToTerm( snapshot, id, language, outTerm );
+
+        if (alternateLanguage != null) {
+            outTerm.setAlternateName( snapshot.getName( id, alternateLanguage ) );
+        }
+
+        return outTerm;
+    }
+
     /**
      * Creates an InGrid Term from the given JSON object.
      * 
@@ -274,6 +382,20 @@ public class GEMETMapper {
         return termToMapTo;
     }
 
+    /**
+     * Map node of local snapshot to given InGrid term.
+     */
+    private Term mapToTerm(GEMETSnapshot snapshot, int id, String language, Term termToMapTo) {
+        termToMapTo.setId( snapshot.getUri( id ) );
+        // also set ID as GEMET ID, so the term is classified as GEMET in
+        // frontend
+        termToMapTo.setAlternateId( termToMapTo.getId() );
+        termToMapTo.setName( snapshot.getName( id, language ) );
+        termToMapTo.setType( snapshot.getType( id ) == ConceptType.CONCEPT ? TermType.DESCRIPTOR : TermType.NODE_LABEL );
+
+        return termToMapTo;
+    }
+
     private RelationType getRelationTypeFromConceptRelation(ConceptRelation conceptRelation) {
         if (ConceptRelation.RELATED == conceptRelation)
             return RelationType.RELATIVE;
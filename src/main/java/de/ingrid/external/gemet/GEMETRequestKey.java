@@ -0,0 +1,98 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.util.Objects;
+
+/**
+ * Identifies a request to the GEMET service independent from the service URL,
+ * e.g. used as key when caching responses.
+ */
+public final class GEMETRequestKey {
+
+    private final String endpoint;
+
+    private final String concept;
+
+    private final String relation;
+
+    private final String language;
+
+    /**
+     * @param endpoint
+     *            the GEMET API method, e.g. "getConcept"
+     * @param concept
+     *            the concept URI. The keyword when searching concepts, the
+     *            thesaurus URI when fetching topmost concepts.
+     * @param relation
+     *            the relation URI. The search mode when searching concepts.
+     *            Pass null if not relevant.
+     * @param language
+     *            the requested language, null if not relevant
+     */
+    public GEMETRequestKey(String endpoint, String concept, String relation, String language) {
+        this.endpoint = endpoint;
+        this.concept = concept;
+        this.relation = relation;
+        this.language = language;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getConcept() {
+        return concept;
+    }
+
+    public String getRelation() {
+        return relation;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GEMETRequestKey)) {
+            return false;
+        }
+        GEMETRequestKey other = (GEMETRequestKey) obj;
+        return Objects.equals( endpoint, other.endpoint ) && Objects.equals( concept, other.concept ) && Objects.equals( relation, other.relation )
+                && Objects.equals( language, other.language );
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash( endpoint, concept, relation, language );
+    }
+
+    @Override
+    public String toString() {
+        return endpoint + "[" + concept + ", " + relation + ", " + language + "]";
+    }
+}
@@ -22,12 +22,25 @@
  */
 package de.ingrid.external.gemet;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.jena.rdf.model.Resource;
 import org.apache.logging.log4j.LogManager;
@@ -52,6 +65,67 @@ public class GEMETService implements ThesaurusService {
     GEMETClient gemetClient;
     GEMETMapper gemetMapper;
 
+    /**
+     * Local snapshot of GEMET if backend "snapshot" is set in
+     * gemet.properties, then no requests are sent to the GEMET service and
+     * gemetClient is null
+     */
+    GEMETSnapshot snapshot;
+
+    /**
+     * Hierarchy of GEMET loaded in background via the gemetClient if
+     * "service.graph.enabled" is set in gemet.properties. Null until loaded,
+     * then hierarchy requests only fetch the concepts themselves. Replaced on
+     * refresh, never changed.
+     */
+    volatile GEMETConceptGraph conceptGraph;
+
+    /** Loads and refreshes conceptGraph, null if graph not enabled */
+    GEMETConceptGraphLoader conceptGraphLoader;
+
+    /** Crawling the concept graph is repeated this often after problems */
+    static final int MAX_LOAD_ATTEMPTS = 3;
+
+    static final long LOAD_RETRY_MILLIS = 10 * 60 * 1000;
+
+    /** Nodes not refreshed again in the concept graph for this time after failures */
+    static final long REFRESH_RETRY_MILLIS = 10 * 60 * 1000;
+
+    static final int MAX_REFRESH_FAILURES = 1000;
+
+    /**
+     * Time of the last failed refresh of the concept graph by node, e.g.
+     * unknown in GEMET, so it is not requested on every call. Bounded, the
+     * oldest entries are removed.
+     */
+    private final Map<String, Long> refreshFailures = Collections.synchronizedMap( new LinkedHashMap<String, Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_REFRESH_FAILURES;
+        }
+    } );
+
+    /** Serializes replacing the concept graph on refresh */
+    private final Object conceptGraphLock = new Object();
+
+    /** Maximum number of nodes waiting for a refresh of the concept graph */
+    static final int MAX_QUEUED_REFRESHES = 100;
+
+    /** nodes queued for a refresh of the concept graph */
+    private final Set<String> queuedRefreshes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Refreshes the concept graph in background, so calls are not delayed by
+     * the requests. The thread is only started with the first refresh.
+     */
+    private final ExecutorService conceptGraphRefresher = Executors.newSingleThreadExecutor( r -> {
+        Thread thread = new Thread( r, "gemet-graph-refresh" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
     /**
      * request RDF format from service where possible (true) or JSON (false)
      * (set from gemet.properties)
@@ -79,8 +153,14 @@ public class GEMETService implements ThesaurusService {
 
     // Init Method is called by the Spring Framework on initialization
     public void init() throws Exception {
-        ResourceBundle gemetProps = ResourceBundle.getBundle( "gemet" );
+        init( ResourceBundle.getBundle( "gemet" ) );
+    }
 
+    /**
+     * Initialize with the given settings instead of gemet.properties, e.g. in
+     * tests.
+     */
+    public void init(ResourceBundle gemetProps) throws Exception {
         this.doRDF = Boolean.parseBoolean( gemetProps.getString( "service.request.rdf" ) );
         this.analyzeMaxWords = Integer.parseInt( gemetProps.getString( "service.analyzeMaxWords" ) );
         this.ignorePassedMatchingType = Boolean.parseBoolean( gemetProps.getString( "service.ignorePassedMatchingType" ) );
@@ -98,10 +178,217 @@ public class GEMETService implements ThesaurusService {
                 this.alternateLanguage = null;
         }
 
-        this.gemetClient = new GEMETClient( gemetProps );
+        String backend = PropertiesUtils.getString( gemetProps, "service.backend", "remote" );
+        if ("snapshot".equals( backend )) {
+            this.snapshot = loadSnapshot( gemetProps );
+        } else {
+            this.gemetClient = new GEMETClient( gemetProps );
+            if (PropertiesUtils.getBoolean( gemetProps, "service.graph.enabled", false )) {
+                this.conceptGraphLoader = new GEMETConceptGraphLoader( gemetClient, getGEMETLanguageFilter( null ) );
+                loadConceptGraph();
+            }
+        }
         this.gemetMapper = new GEMETMapper();
     }
 
+    /**
+     * Crawl concept graph in background, until loaded all requests are
+     * answered without graph. Crawling is repeated after problems, e.g. if
+     * GEMET is not available.
+     */
+    private void loadConceptGraph() {
+        Thread loader = new Thread( () -> {
+            for (int attempt = 1; attempt <= MAX_LOAD_ATTEMPTS; attempt++) {
+                try {
+                    this.conceptGraph = conceptGraphLoader.load();
+                    return;
+                } catch (Exception ex) {
+                    if (attempt == MAX_LOAD_ATTEMPTS) {
+                        log.error( "Problems loading GEMET concept graph, we continue without graph !", ex );
+                        return;
+                    }
+                    log.warn( "Problems loading GEMET concept graph, we retry in {} minutes !", LOAD_RETRY_MILLIS / 60000, ex );
+                }
+                try {
+                    Thread.sleep( LOAD_RETRY_MILLIS );
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }, "gemet-graph-loader" );
+        loader.setDaemon( true );
+        loader.start();
+    }
+
+    /**
+     * Fetch the relations of the given node from the service and replace the
+     * concept graph with the refreshed copy. The node is only added if GEMET
+     * confirms it. Nodes failed in the last REFRESH_RETRY_MILLIS are not
+     * requested again.
+     * 
+     * @param termId
+     *            concept, group or supergroup, e.g. missing in the graph
+     * @return the refreshed graph
+     */
+    public GEMETConceptGraph refreshConceptGraph(String termId) {
+        if (conceptGraphLoader == null || conceptGraph == null) {
+            return conceptGraph;
+        }
+        Long failedAt = refreshFailures.get( termId );
+        if (failedAt != null && System.currentTimeMillis() - failedAt < REFRESH_RETRY_MILLIS) {
+            return conceptGraph;
+        }
+
+        // requests without lock, only replacing the graph is serialized
+        GEMETConceptGraphLoader.NodeRelations relations = conceptGraphLoader.fetch( termId );
+        if (relations == null || !relations.isComplete()) {
+            refreshFailures.put( termId, System.currentTimeMillis() );
+        } else {
+            refreshFailures.remove( termId );
+        }
+        if (relations == null) {
+            return conceptGraph;
+        }
+        synchronized (conceptGraphLock) {
+            this.conceptGraph = conceptGraphLoader.apply( conceptGraph, relations );
+            return conceptGraph;
+        }
+    }
+
+    /**
+     * Refresh the given node in the concept graph in background, see
+     * {@link #refreshConceptGraph(String)}. Does nothing if already queued or
+     * too many refreshes are queued.
+     */
+    private void queueConceptGraphRefresh(String termId) {
+        if (queuedRefreshes.size() >= MAX_QUEUED_REFRESHES || !queuedRefreshes.add( termId )) {
+            return;
+        }
+        conceptGraphRefresher.execute( () -> {
+            try {
+                refreshConceptGraph( termId );
+            } catch (Exception ex) {
+                log.error( "Problems refreshing {} in GEMET concept graph !", termId, ex );
+            } finally {
+                queuedRefreshes.remove( termId );
+            }
+        } );
+    }
+
+    /**
+     * @return concept graph containing the given node with known relations,
+     *         null if no graph loaded (yet) or the node is unknown or
+     *         incomplete, then the node is refreshed in background for later
+     *         calls
+     */
+    private GEMETConceptGraph getConceptGraph(String termId) {
+        GEMETConceptGraph graph = conceptGraph;
+        if (graph == null) {
+            return null;
+        }
+        int id = graph.getId( termId );
+        if (id >= 0 && graph.isComplete( id )) {
+            return graph;
+        }
+
+        // e.g. new concept in GEMET, we only refresh concepts, groups ...
+        if (GEMETConceptGraph.getConceptType( termId ) != null) {
+            queueConceptGraphRefresh( termId );
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the children of the given node and of its concept
+     *         children (subchildren) are known in the graph
+     */
+    private static boolean isNextLevelComplete(GEMETConceptGraph graph, int id) {
+        if (!graph.isComplete( id )) {
+            return false;
+        }
+        for (int childId : graph.getChildren( id )) {
+            if (graph.getType( childId ) == ConceptType.CONCEPT && !graph.isComplete( childId )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if all nodes of the path to the top are known in the
+     *         graph, otherwise the path may end too early
+     */
+    private static boolean isPathToTopComplete(GEMETConceptGraph graph, int id) {
+        for (int pathId : graph.getPathToTop( id )) {
+            if (!graph.isComplete( pathId )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Load local snapshot from binary snapshot file or import it from RDF
+     * dumps, then also write the snapshot file for faster startup.
+     */
+    private GEMETSnapshot loadSnapshot(ResourceBundle gemetProps) throws IOException {
+        String snapshotFile = PropertiesUtils.getString( gemetProps, "service.snapshot.file", null );
+        String rdfFiles = PropertiesUtils.getString( gemetProps, "service.snapshot.rdf", null );
+        String languages = PropertiesUtils.getString( gemetProps, "service.snapshot.languages", null );
+
+        long startTime = System.currentTimeMillis();
+        GEMETSnapshot result;
+        if (snapshotFile != null && Files.exists( Paths.get( snapshotFile ) )) {
+            result = GEMETSnapshot.load( Paths.get( snapshotFile ) );
+
+        } else if (rdfFiles != null) {
+            List<Path> files = new ArrayList<Path>();
+            for (String rdfFile : rdfFiles.split( "," )) {
+                if (rdfFile.trim().length() > 0) {
+                    files.add( Paths.get( rdfFile.trim() ) );
+                }
+            }
+            Set<String> languageFilter = null;
+            if (languages != null) {
+                languageFilter = new HashSet<String>();
+                for (String language : languages.split( "," )) {
+                    languageFilter.add( language.trim() );
+                }
+            }
+
+            result = GEMETSnapshot.importRdf( files, languageFilter );
+            if (snapshotFile != null) {
+                result.save( Paths.get( snapshotFile ) );
+            }
+
+        } else {
+            throw new IllegalStateException( "Backend 'snapshot' needs 'service.snapshot.file' or 'service.snapshot.rdf' in gemet.properties !" );
+        }
+
+        log.info( "Loaded GEMET snapshot with {} concepts/groups in {} ms, languages: {}, estimated heap: {} KB", result.size(),
+                System.currentTimeMillis() - startTime, String.join( ",", result.getLanguages() ), result.estimateHeapSize() / 1024 );
+
+        return result;
+    }
+
+    // Destroy Method is called by the Spring Framework on shutdown
+    public void destroy() throws Exception {
+        conceptGraphRefresher.shutdownNow();
+        if (this.gemetClient != null) {
+            this.gemetClient.close();
+        }
+    }
+
+    /**
+     * Statistics of the response cache (hits, misses, evictions ...).
+     * 
+     * @return the statistics or null if caching is disabled in
+     *         gemet.properties
+     */
+    public GEMETCache.Stats getCacheStats() {
+        return gemetClient == null ? null : gemetClient.getCacheStats();
+    }
+
     /**
      * request RDF format from service where possible (true) or JSON (false)
      * (set from gemet.properties)
@@ -187,6 +474,10 @@ public class GEMETService implements ThesaurusService {
             gemetSearchMode = MatchingConceptsSearchMode.CONTAINS;
         }
 
+        if (snapshot != null) {
+            return findTermsFromSnapshot( queryTerm, gemetSearchMode, language, locale );
+        }
+
         List<JSONArray> responseList = new ArrayList<JSONArray>();
 
         // first search exact query term
@@ -246,7 +537,18 @@ public class GEMETService implements ThesaurusService {
             return new TreeTerm[] {};
         }
 
+        if (snapshot != null) {
+            return getHierarchyNextLevelFromSnapshot( termId, locale );
+        }
+
         String language = getGEMETLanguageFilter( locale );
+        // one deadline for all parallel requests of this call
+        long deadline = gemetClient.getFanOutExecutor().newDeadline();
+
+        GEMETConceptGraph graph = getConceptGraph( termId );
+        if (graph != null && isNextLevelComplete( graph, graph.getId( termId ) )) {
+            return getHierarchyNextLevelFromGraph( graph, termId, language, deadline );
+        }
 
         // get concept itself, this is the parent
         JSONObject parent = gemetClient.getConceptAsJSON( termId, language );
@@ -260,9 +562,9 @@ public class GEMETService implements ThesaurusService {
         JSONArray parentArray = JSONUtils.toJSONArray( parent );
 
         // get direct children
-        List<JSONArray> childrenList = gemetClient.getChildConcepts( termId, language );
+        List<JSONArray> childrenList = gemetClient.getChildConcepts( termId, language, deadline );
 
-        // get children of children (next hierarchy level) and create TreeTerms
+        // create TreeTerms of children
         List<TreeTerm> resultList = new ArrayList<TreeTerm>();
         for (JSONArray children : childrenList) {
             Iterator<JSONObject> childrenIterator = children.iterator();
@@ -274,23 +576,37 @@ public class GEMETService implements ThesaurusService {
                 // add parent to TreeTerm
                 gemetMapper.addParentsToTreeTerm( resultTreeTerm, parentArray );
 
-                // get next hierarchy level (subchildren) and add to TreeTerm !
-                // This is time consuming, we only do this for terms where we do
-                // not know whether there are children !
-                // For GROUPS OR SOUPERGROUPS we just add DUMMY CHILD to
-                // indicate children, so we reduce requests !
-                if (TermType.NODE_LABEL.equals( resultTreeTerm.getType() )) {
-                    // set DUMMY CHILD to indicate children
-                    resultTreeTerm.addChild( new TreeTermImpl() );
+                resultList.add( resultTreeTerm );
+            }
+        }
 
-                } else {
-                    List<JSONArray> subChildrenList = gemetClient.getChildConcepts( resultTreeTerm.getId(), language );
-                    for (JSONArray subChildren : subChildrenList) {
-                        gemetMapper.addChildrenToTreeTerm( resultTreeTerm, subChildren );
-                    }
-                }
+        // get next hierarchy level (subchildren) and add to TreeTerms !
+        // This is time consuming, we only do this for terms where we do
+        // not know whether there are children and fetch them in parallel !
+        // For GROUPS OR SOUPERGROUPS we just add DUMMY CHILD to
+        // indicate children, so we reduce requests !
+        List<TreeTerm> termsToExpand = new ArrayList<TreeTerm>();
+        List<Callable<List<JSONArray>>> subChildrenRequests = new ArrayList<Callable<List<JSONArray>>>();
+        for (TreeTerm resultTreeTerm : resultList) {
+            if (TermType.NODE_LABEL.equals( resultTreeTerm.getType() )) {
+                // set DUMMY CHILD to indicate children
+                resultTreeTerm.addChild( new TreeTermImpl() );
 
-                resultList.add( resultTreeTerm );
+            } else {
+                termsToExpand.add( resultTreeTerm );
+                subChildrenRequests.add( () -> gemetClient.getChildConcepts( resultTreeTerm.getId(), language, deadline ) );
+            }
+        }
+
+        List<List<JSONArray>> subChildrenResults = gemetClient.getFanOutExecutor().invokeAll( subChildrenRequests, deadline );
+        for (int i = 0; i < termsToExpand.size(); i++) {
+            List<JSONArray> subChildrenList = subChildrenResults.get( i );
+            // null if problems or deadline exceeded, we keep term without
+            // children then
+            if (subChildrenList != null) {
+                for (JSONArray subChildren : subChildrenList) {
+                    gemetMapper.addChildrenToTreeTerm( termsToExpand.get( i ), subChildren );
+                }
             }
         }
 
@@ -298,6 +614,10 @@ public class GEMETService implements ThesaurusService {
     }
 
     private TreeTerm[] getHierarchyTopLevel(Locale locale) {
+        if (snapshot != null) {
+            return getHierarchyTopLevelFromSnapshot( locale );
+        }
+
         String language = getGEMETLanguageFilter( locale );
 
         // get top supergroups
@@ -342,7 +662,17 @@ public class GEMETService implements ThesaurusService {
     // NOTICE: Parameter "url" is irrelevant !
     @Override
     public TreeTerm getHierarchyPathToTop(String url, String termId, Locale locale) {
+        if (snapshot != null) {
+            return getHierarchyPathToTopFromSnapshot( termId, locale );
+        }
+
         String language = getGEMETLanguageFilter( locale );
+        long deadline = gemetClient.getFanOutExecutor().newDeadline();
+
+        GEMETConceptGraph graph = getConceptGraph( termId );
+        if (graph != null && isPathToTopComplete( graph, graph.getId( termId ) )) {
+            return getHierarchyPathToTopFromGraph( graph, termId, language, deadline );
+        }
 
         // get concept and map to TreeTerm
         JSONObject inConcept = gemetClient.getConceptAsJSON( termId, language );
@@ -377,6 +707,116 @@ public class GEMETService implements ThesaurusService {
         return resultTreeTerm;
     }
 
+    /**
+     * Like getHierarchyNextLevel via service, but children and subchildren are
+     * determined from the concept graph, so we only fetch the concepts
+     * themselves, all in parallel.
+     */
+    @SuppressWarnings("unchecked")
+    private TreeTerm[] getHierarchyNextLevelFromGraph(GEMETConceptGraph graph, String termId, String language, long deadline) {
+        int parentId = graph.getId( termId );
+        int[] childIds = graph.getChildren( parentId );
+
+        // fetch parent, children and subchildren of concepts in one go
+        List<String> uris = new ArrayList<String>();
+        uris.add( termId );
+        int[][] subChildIds = new int[childIds.length][];
+        for (int i = 0; i < childIds.length; i++) {
+            uris.add( graph.getUri( childIds[i] ) );
+            // for GROUPS OR SOUPERGROUPS we just add DUMMY CHILD, see below
+            subChildIds[i] = graph.getType( childIds[i] ) == ConceptType.CONCEPT ? graph.getChildren( childIds[i] ) : new int[0];
+            for (int subChildId : subChildIds[i]) {
+                uris.add( graph.getUri( subChildId ) );
+            }
+        }
+        List<JSONObject> concepts = fetchConcepts( uris, language, deadline );
+
+        // we check on null, cause some concepts are buggy in service !
+        // (e.g. concept/15041)
+        JSONObject parent = concepts.get( 0 );
+        if (parent == null) {
+            log.error("Problems fetching {} we return empty children list !", termId);
+            return new TreeTerm[] {};
+        }
+        JSONArray parentArray = JSONUtils.toJSONArray( parent );
+
+        List<TreeTerm> resultList = new ArrayList<TreeTerm>();
+        int index = 1;
+        for (int i = 0; i < childIds.length; i++) {
+            JSONObject child = concepts.get( index++ );
+            JSONArray subChildren = new JSONArray();
+            for (int j = 0; j < subChildIds[i].length; j++) {
+                JSONObject subChild = concepts.get( index++ );
+                if (subChild != null) {
+                    subChildren.add( subChild );
+                }
+            }
+            if (child == null) {
+                log.error("Problems fetching child {} we skip this one !", graph.getUri( childIds[i] ));
+                continue;
+            }
+
+            TreeTerm resultTreeTerm = gemetMapper.mapToTreeTerm( child, null, null );
+            gemetMapper.addParentsToTreeTerm( resultTreeTerm, parentArray );
+            if (TermType.NODE_LABEL.equals( resultTreeTerm.getType() )) {
+                // set DUMMY CHILD to indicate children
+                resultTreeTerm.addChild( new TreeTermImpl() );
+            } else {
+                gemetMapper.addChildrenToTreeTerm( resultTreeTerm, subChildren );
+            }
+            resultList.add( resultTreeTerm );
+        }
+
+        return resultList.toArray( new TreeTerm[resultList.size()] );
+    }
+
+    /**
+     * Like getHierarchyPathToTop via service, but the path is determined from
+     * the concept graph, so all concepts of the path are fetched in parallel
+     * instead of one level after the other.
+     */
+    private TreeTerm getHierarchyPathToTopFromGraph(GEMETConceptGraph graph, String termId, String language, long deadline) {
+        int[] path = graph.getPathToTop( graph.getId( termId ) );
+        List<String> uris = new ArrayList<String>();
+        for (int id : path) {
+            uris.add( graph.getUri( id ) );
+        }
+        List<JSONObject> concepts = fetchConcepts( uris, language, deadline );
+
+        // we check on null, cause some concepts are buggy in service !
+        // (e.g. concept/15041)
+        if (concepts.get( 0 ) == null) {
+            log.error("Problems fetching {} we return empty TreeTerm !", termId);
+            return new TreeTermImpl();
+        }
+
+        TreeTerm resultTreeTerm = gemetMapper.mapToTreeTerm( concepts.get( 0 ), null, null );
+        TreeTerm currentTerm = resultTreeTerm;
+        for (int i = 1; i < concepts.size(); i++) {
+            if (concepts.get( i ) == null) {
+                log.error("Problems fetching parent {} we stop path to top !", uris.get( i ));
+                break;
+            }
+            gemetMapper.addParentToTreeTerm( currentTerm, concepts.get( i ) );
+            currentTerm = currentTerm.getParents().get( 0 );
+        }
+
+        return resultTreeTerm;
+    }
+
+    /**
+     * Fetch the given concepts in parallel until the given deadline.
+     * 
+     * @return concepts in order of the passed URIs, null if problems
+     */
+    private List<JSONObject> fetchConcepts(List<String> uris, String language, long deadline) {
+        List<Callable<JSONObject>> requests = new ArrayList<Callable<JSONObject>>();
+        for (String uri : uris) {
+            requests.add( () -> gemetClient.getConceptAsJSON( uri, language ) );
+        }
+        return gemetClient.getFanOutExecutor().invokeAll( requests, deadline );
+    }
+
     /**
      * Determine parents of passed TreeTerm and set them in TreeTerm. Only first
      * parent can be set.
@@ -419,9 +859,18 @@ public class GEMETService implements ThesaurusService {
         String language = getGEMETLanguageFilter( locale );
 
         // we iterate over all relations !
-        for (ConceptRelation concRelation : ConceptRelation.values()) {
-            JSONArray relatedConcepts = gemetClient.getRelatedConcepts( termId, concRelation, language );
-            resultList.addAll( gemetMapper.mapToRelatedTerms( relatedConcepts, concRelation ) );
+        if (snapshot != null) {
+            int id = snapshot.getId( termId );
+            for (ConceptRelation concRelation : ConceptRelation.values()) {
+                for (int relatedId : id < 0 ? new int[0] : snapshot.getRelated( id, concRelation )) {
+                    resultList.add( gemetMapper.mapToRelatedTerm( snapshot, relatedId, language, concRelation ) );
+                }
+            }
+        } else {
+            for (ConceptRelation concRelation : ConceptRelation.values()) {
+                JSONArray relatedConcepts = gemetClient.getRelatedConcepts( termId, concRelation, language );
+                resultList.addAll( gemetMapper.mapToRelatedTerms( relatedConcepts, concRelation ) );
+            }
         }
 
         return resultList.toArray( new RelatedTerm[resultList.size()] );
@@ -442,6 +891,11 @@ public class GEMETService implements ThesaurusService {
         // with other keywords when mapping to terms. GEMET service always
         // ignores case !
         keywords = processKeywords( keywords, this.analyzeMaxWords );
+        if (snapshot != null) {
+            List<Term> resultList = findTermsInSnapshot( keywords, keywords, language, MatchingConceptsSearchMode.CONTAINS, locale, null );
+            return resultList.toArray( new Term[resultList.size()] );
+        }
+
         List<JSONArray> response = gemetClient.getConceptsMatchingKeywords( keywords, language, MatchingConceptsSearchMode.CONTAINS );
 
         List<Term> resultList = new ArrayList<Term>();
@@ -456,7 +910,9 @@ public class GEMETService implements ThesaurusService {
     public Term getTerm(String termId, Locale locale) {
         // response format determined by property
         Term result = null;
-        if (doRDF) {
+        if (snapshot != null) {
+            result = getTermFromSnapshot( termId, locale );
+        } else if (doRDF) {
             result = getTermFromRDF( termId, locale );
         } else {
             result = getTermFromJSON( termId, locale );
@@ -529,14 +985,25 @@ public class GEMETService implements ThesaurusService {
             return new Term[] {};
         }
 
+        String language = getGEMETLanguageFilter( locale );
+        if (snapshot != null) {
+            // whole text in one pass, also finds terms of several words, so
+            // no maximum of words
+            List<Term> resultList = new ArrayList<Term>();
+            for (int id : snapshot.findConceptsInText( text, language )) {
+                resultList.add( gemetMapper.mapToTerm( snapshot, id, language, null ) );
+            }
+            return resultList.toArray( new Term[resultList.size()] );
+        }
+
         List<JSONArray> responseList = new ArrayList<JSONArray>();
         if (analyzeMaxWords > this.analyzeMaxWords)
             analyzeMaxWords = this.analyzeMaxWords;
 
-        // split text to words, only maximum of words
-        String[] keywords = processKeywords( text.trim().split( " " ), analyzeMaxWords );
-        if (keywords.length > 1) {
-            String language = getGEMETLanguageFilter( locale );
+        // split text to distinct words, only maximum of words. Words are
+        // requested in parallel
+        String[] keywords = getDistinctWords( text, analyzeMaxWords, locale );
+        if (keywords.length > 0) {
             responseList.addAll( gemetClient.getConceptsMatchingKeywords( keywords, language, MatchingConceptsSearchMode.EXACT ) );
         }
 
@@ -548,6 +1015,154 @@ public class GEMETService implements ThesaurusService {
         return resultList.toArray( new Term[resultList.size()] );
     }
 
+    /**
+     * Fetching term from local snapshot !
+     * 
+     * @param termId
+     *            e.g. http://www.eionet.europa.eu/gemet/concept/6740
+     * @param locale
+     *            which language to use
+     * @return mapped term or null if not in snapshot
+     */
+    private Term getTermFromSnapshot(String termId, Locale locale) {
+        int id = snapshot.getId( termId );
+        if (id < 0) {
+            return null;
+        }
+
+        return gemetMapper.mapToTerm( snapshot, id, getGEMETLanguageFilter( locale ), this.alternateLanguage );
+    }
+
+    /**
+     * Like findTermsFromQueryTerm via service, but answered from local
+     * snapshot.
+     */
+    private Term[] findTermsFromSnapshot(String queryTerm, MatchingConceptsSearchMode gemetSearchMode, String language, Locale locale) {
+        // first search exact query term, then single keywords
+        String[] keywords = processKeywords( queryTerm.trim().split( " " ), this.analyzeMaxWords );
+        List<String> queries = new ArrayList<String>();
+        queries.add( queryTerm );
+        if (keywords.length > 1) {
+            for (String keyword : keywords) {
+                queries.add( keyword );
+            }
+        }
+
+        // additional localization only when EXACT matching was requested,
+        // like when requesting the service
+        String alternateLang = MatchingConceptsSearchMode.EXACT.equals( gemetSearchMode ) ? alternateLanguage : null;
+        List<Term> resultList = findTermsInSnapshot( queries.toArray( new String[queries.size()] ), keywords, language, gemetSearchMode, locale, alternateLang );
+
+        return resultList.toArray( new Term[resultList.size()] );
+    }
+
+    /**
+     * Search concepts in local snapshot.
+     * 
+     * @param queries
+     *            every query is searched separately and results are combined
+     * @param keywordsFilter
+     *            only use concepts containing all keywords, pass null if no
+     *            filter
+     * @param alternateLanguage
+     *            also map name in this language, pass null if not
+     * @return mapped terms without duplicates
+     */
+    private List<Term> findTermsInSnapshot(String[] queries, String[] keywordsFilter, String language, MatchingConceptsSearchMode searchMode, Locale locale,
+            String alternateLanguage) {
+        GEMETLabelIndex labelIndex = snapshot.getLabelIndex( language );
+        if (labelIndex == null) {
+            return new ArrayList<Term>();
+        }
+
+        // fold keywords like the labels only once
+        String[] keywords = null;
+        if (keywordsFilter != null) {
+            keywords = new String[keywordsFilter.length];
+            for (int i = 0; i < keywordsFilter.length; i++) {
+                keywords[i] = labelIndex.fold( keywordsFilter[i].trim() );
+            }
+        }
+
+        // keywords filter is checked on all labels, so concepts found via
+        // alternate label are kept
+        List<Term> terms = new ArrayList<Term>();
+        Set<Integer> foundIds = new HashSet<Integer>();
+        for (String query : queries) {
+            for (int id : labelIndex.find( query, searchMode )) {
+                if (foundIds.add( id ) && (keywords == null || snapshot.hasLabelContainingAll( id, language, keywords ))) {
+                    terms.add( gemetMapper.mapToTerm( snapshot, id, language, alternateLanguage ) );
+                }
+            }
+        }
+
+        return terms;
+    }
+
+    private TreeTerm[] getHierarchyTopLevelFromSnapshot(Locale locale) {
+        String language = getGEMETLanguageFilter( locale );
+
+        List<TreeTerm> resultList = new ArrayList<TreeTerm>();
+        for (int id : snapshot.getTopmost( ConceptType.SOUPERGROUP )) {
+            TreeTerm resultTreeTerm = gemetMapper.mapToTreeTerm( snapshot, id, language );
+            // set DUMMY CHILD to indicate children like when requesting the
+            // service
+            resultTreeTerm.addChild( new TreeTermImpl() );
+            resultList.add( resultTreeTerm );
+        }
+
+        return resultList.toArray( new TreeTerm[resultList.size()] );
+    }
+
+    private TreeTerm[] getHierarchyNextLevelFromSnapshot(String termId, Locale locale) {
+        int parentId = snapshot.getId( termId );
+        if (parentId < 0) {
+            log.error("Problems fetching {} we return empty children list !", termId);
+            return new TreeTerm[] {};
+        }
+
+        String language = getGEMETLanguageFilter( locale );
+
+        List<TreeTerm> resultList = new ArrayList<TreeTerm>();
+        for (int childId : snapshot.getChildren( parentId )) {
+            TreeTerm resultTreeTerm = gemetMapper.mapToTreeTerm( snapshot, childId, language );
+            gemetMapper.addParentToTreeTerm( resultTreeTerm, snapshot, parentId, language );
+
+            // like when requesting the service we add DUMMY CHILD to GROUPS
+            // OR SOUPERGROUPS
+            if (TermType.NODE_LABEL.equals( resultTreeTerm.getType() )) {
+                resultTreeTerm.addChild( new TreeTermImpl() );
+            } else {
+                gemetMapper.addChildrenToTreeTerm( resultTreeTerm, snapshot, snapshot.getChildren( childId ), language );
+            }
+
+            resultList.add( resultTreeTerm );
+        }
+
+        return resultList.toArray( new TreeTerm[resultList.size()] );
+    }
+
+    private TreeTerm getHierarchyPathToTopFromSnapshot(String termId, Locale locale) {
+        int id = snapshot.getId( termId );
+        if (id < 0) {
+            log.error("Problems fetching {} we return empty TreeTerm !", termId);
+            return new TreeTermImpl();
+        }
+
+        String language = getGEMETLanguageFilter( locale );
+        TreeTerm resultTreeTerm = gemetMapper.mapToTreeTerm( snapshot, id, language );
+
+        // only ONE PATH, so we follow the first parent up to top
+        int[] path = snapshot.getGraph().getPathToTop( id );
+        TreeTerm currentTerm = resultTreeTerm;
+        for (int i = 1; i < path.length; i++) {
+            gemetMapper.addParentToTreeTerm( currentTerm, snapshot, path[i], language );
+            currentTerm = currentTerm.getParents().get( 0 );
+        }
+
+        return resultTreeTerm;
+    }
+
     /**
      * Prepare keywords for GEMET request, e.g. reduce to max number, remove
      * punctuation ...
@@ -572,6 +1187,31 @@ public class GEMETService implements ThesaurusService {
         return keywords;
     }
 
+    /**
+     * Split text to words, ignoring punctuation, and remove duplicates
+     * ignoring case (GEMET service always ignores case).
+     * 
+     * @param text
+     *            arbitrary text
+     * @param maxWords
+     *            maximum number of distinct words
+     * @param locale
+     *            used for comparing case
+     * @return distinct words in order of occurrence
+     */
+    private String[] getDistinctWords(String text, int maxWords, Locale locale) {
+        Locale caseLocale = locale != null ? locale : Locale.ROOT;
+        Map<String, String> words = new LinkedHashMap<String, String>();
+        for (String word : TextUtils.tokenize( text )) {
+            if (words.size() >= maxWords) {
+                break;
+            }
+            words.putIfAbsent( word.toLowerCase( caseLocale ), word );
+        }
+
+        return words.values().toArray( new String[words.size()] );
+    }
+
     /**
      * Determine language filter for GEMET dependent from passed locale !
      * 
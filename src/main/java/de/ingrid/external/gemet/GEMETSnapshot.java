@@ -0,0 +1,593 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+import de.ingrid.external.gemet.GEMETClient.ConceptType;
+import de.ingrid.external.gemet.GEMETClient.MatchingConceptsSearchMode;
+
+/**
+ * Complete GEMET thesaurus held in memory, imported from the GEMET RDF dumps
+ * or loaded from a compact binary snapshot file. Concepts, groups and
+ * supergroups are numbered densely, labels and relations are kept in arrays
+ * indexed by these numbers, so no requests to the GEMET service are needed.
+ */
+public class GEMETSnapshot {
+
+    private final static Logger log = LogManager.getLogger( GEMETSnapshot.class );
+
+    private static final String MAGIC = "GEMETSNAPSHOT";
+
+    private static final int VERSION = 3;
+
+    private static final String SKOS = "http://www.w3.org/2004/02/skos/core#";
+
+    private static final String PREF_LABEL = SKOS + "prefLabel";
+
+    private static final String ALT_LABEL = SKOS + "altLabel";
+
+    private static final String RDFS_LABEL = "http://www.w3.org/2000/01/rdf-schema#label";
+
+    private static final ConceptRelation[] CONCEPT_RELATIONS = ConceptRelation.values();
+
+    /** all nodes (concepts, groups, supergroups) and their relations */
+    private final GEMETConceptGraph graph;
+
+    /** languages of the labels */
+    private final String[] languages;
+
+    private final Map<String, Integer> languageIndex;
+
+    /** preferred labels by language index and id, null if missing */
+    private final String[][] prefLabels;
+
+    /** alternate labels by language index and id, null if none */
+    private final String[][][] altLabels;
+
+    /** label index by language index, created on first search */
+    private final GEMETLabelIndex[] labelIndexes;
+
+    /** text matcher by language index, created on first text analysis */
+    private final GEMETTextMatcher[] textMatchers;
+
+    private GEMETSnapshot(GEMETConceptGraph graph, String[] languages, String[][] prefLabels, String[][][] altLabels) {
+        this.graph = graph;
+        this.languages = languages;
+        this.prefLabels = prefLabels;
+        this.altLabels = altLabels;
+        this.labelIndexes = new GEMETLabelIndex[languages.length];
+        this.textMatchers = new GEMETTextMatcher[languages.length];
+
+        this.languageIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < languages.length; i++) {
+            languageIndex.put( languages[i], i );
+        }
+    }
+
+    /**
+     * Import GEMET RDF dumps (e.g. gemet-backbone.rdf, gemet-groups.rdf,
+     * gemet-skoscore.rdf and the label files of every language). The format is
+     * determined from the file extension, RDF/XML by default, gzipped files
+     * are supported.
+     * 
+     * @param files
+     *            RDF files
+     * @param languageFilter
+     *            only import labels of these languages, pass null for all
+     *            languages
+     * @return the snapshot
+     */
+    public static GEMETSnapshot importRdf(List<Path> files, Set<String> languageFilter) throws IOException {
+        Builder builder = new Builder( languageFilter );
+        for (Path file : files) {
+            if (!Files.isReadable( file )) {
+                throw new IOException( "Cannot read GEMET RDF file: " + file );
+            }
+            if (log.isDebugEnabled()) {
+                log.debug( "Importing GEMET RDF file: {}", file );
+            }
+
+            RDFParser.source( file ).lang( RDFLanguages.filenameToLang( file.toString(), Lang.RDFXML ) ).parse( new StreamRDFBase() {
+
+                @Override
+                public void triple(Triple triple) {
+                    builder.add( triple );
+                }
+            } );
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Load snapshot from binary file written by {@link #save(Path)}.
+     */
+    public static GEMETSnapshot load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( new GZIPInputStream( Files.newInputStream( file ), 65536 ) ) )) {
+            if (!MAGIC.equals( in.readUTF() ) || in.readInt() != VERSION) {
+                throw new IOException( "No GEMET snapshot or unsupported version: " + file );
+            }
+
+            Map<String, String> labelPool = new HashMap<String, String>();
+
+            String[] languages = new String[in.readInt()];
+            for (int i = 0; i < languages.length; i++) {
+                languages[i] = in.readUTF();
+            }
+
+            GEMETConceptGraph graph = GEMETConceptGraph.read( in );
+            int nodeCount = graph.size();
+
+            String[][] prefLabels = new String[languages.length][nodeCount];
+            String[][][] altLabels = new String[languages.length][nodeCount][];
+            for (int lang = 0; lang < languages.length; lang++) {
+                for (int id = 0; id < nodeCount; id++) {
+                    if (in.readBoolean()) {
+                        prefLabels[lang][id] = intern( labelPool, in.readUTF() );
+                    }
+                    int altCount = in.readInt();
+                    if (altCount > 0) {
+                        altLabels[lang][id] = new String[altCount];
+                        for (int i = 0; i < altCount; i++) {
+                            altLabels[lang][id][i] = intern( labelPool, in.readUTF() );
+                        }
+                    }
+                }
+            }
+
+            return new GEMETSnapshot( graph, languages, prefLabels, altLabels );
+        }
+    }
+
+    /**
+     * Save snapshot to compact binary file, which loads much faster than
+     * importing the RDF dumps.
+     */
+    public void save(Path file) throws IOException {
+        Path tmpFile = file.resolveSibling( file.getFileName() + ".tmp" );
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new GZIPOutputStream( Files.newOutputStream( tmpFile ), 65536 ) ) )) {
+            out.writeUTF( MAGIC );
+            out.writeInt( VERSION );
+
+            out.writeInt( languages.length );
+            for (String language : languages) {
+                out.writeUTF( language );
+            }
+
+            graph.write( out );
+
+            for (int lang = 0; lang < languages.length; lang++) {
+                for (int id = 0; id < graph.size(); id++) {
+                    String prefLabel = prefLabels[lang][id];
+                    out.writeBoolean( prefLabel != null );
+                    if (prefLabel != null) {
+                        out.writeUTF( prefLabel );
+                    }
+                    String[] alts = altLabels[lang][id];
+                    out.writeInt( alts == null ? 0 : alts.length );
+                    if (alts != null) {
+                        for (String alt : alts) {
+                            out.writeUTF( alt );
+                        }
+                    }
+                }
+            }
+        }
+        Files.move( tmpFile, file, StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /** Number of nodes (concepts, groups, supergroups) */
+    public int size() {
+        return graph.size();
+    }
+
+    /**
+     * @return all nodes and their relations
+     */
+    public GEMETConceptGraph getGraph() {
+        return graph;
+    }
+
+    public String[] getLanguages() {
+        return languages.clone();
+    }
+
+    /**
+     * @return id of the node with the given URI or -1 if unknown
+     */
+    public int getId(String uri) {
+        return graph.getId( uri );
+    }
+
+    public String getUri(int id) {
+        return graph.getUri( id );
+    }
+
+    public ConceptType getType(int id) {
+        return graph.getType( id );
+    }
+
+    /**
+     * Preferred label in the given language. If missing we deliver the english
+     * one or any other, so every node has a name.
+     */
+    public String getName(int id, String language) {
+        String name = getPrefLabel( id, language );
+        if (name == null) {
+            name = getPrefLabel( id, "en" );
+        }
+        for (int lang = 0; name == null && lang < languages.length; lang++) {
+            name = prefLabels[lang][id];
+        }
+        return name;
+    }
+
+    /**
+     * @return preferred label in the given language or null if missing
+     */
+    public String getPrefLabel(int id, String language) {
+        Integer lang = languageIndex.get( language );
+        return lang == null ? null : prefLabels[lang][id];
+    }
+
+    /**
+     * @return alternate labels in the given language, empty array if none
+     */
+    public String[] getAltLabels(int id, String language) {
+        Integer lang = languageIndex.get( language );
+        String[] alts = lang == null ? null : altLabels[lang][id];
+        return alts == null ? new String[0] : alts.clone();
+    }
+
+    /**
+     * @return ids of all nodes related to the given node via the given
+     *         relation
+     */
+    public int[] getRelated(int id, ConceptRelation relation) {
+        return graph.getRelated( id, relation );
+    }
+
+    public boolean hasRelation(int id, ConceptRelation relation) {
+        return graph.hasRelation( id, relation );
+    }
+
+    /**
+     * @return ids of all nodes of the given type, e.g. all supergroups
+     */
+    public int[] getTopmost(ConceptType type) {
+        return graph.getAll( type );
+    }
+
+    /**
+     * @see GEMETConceptGraph#getChildren(int)
+     */
+    public int[] getChildren(int id) {
+        return graph.getChildren( id );
+    }
+
+    /**
+     * @see GEMETConceptGraph#getParents(int)
+     */
+    public int[] getParents(int id) {
+        return graph.getParents( id );
+    }
+
+    /**
+     * Find concepts whose preferred or alternate labels match the given
+     * keyword like
+     * {@link GEMETClient#getConceptsMatchingKeyword(String, String, MatchingConceptsSearchMode)},
+     * ignoring case.
+     * 
+     * @return ids of matching concepts
+     */
+    public int[] findConcepts(String keyword, String language, MatchingConceptsSearchMode searchMode) {
+        GEMETLabelIndex labelIndex = getLabelIndex( language );
+        return labelIndex == null ? new int[0] : labelIndex.find( keyword, searchMode );
+    }
+
+    /**
+     * Check whether the preferred label or one of the alternate labels
+     * contains all keywords.
+     * 
+     * @param keywords
+     *            keywords folded via {@link GEMETLabelIndex#fold(String)}
+     */
+    public boolean hasLabelContainingAll(int id, String language, String[] keywords) {
+        GEMETLabelIndex labelIndex = getLabelIndex( language );
+        if (labelIndex == null) {
+            return false;
+        }
+        if (containsAll( labelIndex, prefLabels[languageIndex.get( language )][id], keywords )) {
+            return true;
+        }
+        for (String alt : getAltLabels( id, language )) {
+            if (containsAll( labelIndex, alt, keywords )) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAll(GEMETLabelIndex labelIndex, String label, String[] keywords) {
+        if (label == null) {
+            return false;
+        }
+        String folded = labelIndex.fold( label );
+        for (String keyword : keywords) {
+            if (!folded.contains( keyword )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Index of the preferred and alternate labels of all concepts in the given
+     * language, created on first call.
+     * 
+     * @return the index or null if no labels in this language
+     */
+    public GEMETLabelIndex getLabelIndex(String language) {
+        Integer lang = languageIndex.get( language );
+        if (lang == null) {
+            return null;
+        }
+
+        synchronized (labelIndexes) {
+            if (labelIndexes[lang] == null) {
+                long startTime = System.currentTimeMillis();
+                labelIndexes[lang] = new GEMETLabelIndex( getConceptLabels( lang ), Locale.forLanguageTag( language ) );
+                log.info( "Created GEMET label index of language {} with {} labels in {} ms", language, labelIndexes[lang].size(),
+                        System.currentTimeMillis() - startTime );
+            }
+            return labelIndexes[lang];
+        }
+    }
+
+    /**
+     * Find concepts having a preferred or alternate label occurring in the
+     * given text.
+     * 
+     * @return ids of found concepts in order of occurrence
+     */
+    public int[] findConceptsInText(String text, String language) {
+        GEMETTextMatcher textMatcher = getTextMatcher( language );
+        return textMatcher == null ? new int[0] : textMatcher.find( text );
+    }
+
+    /**
+     * Matcher of the preferred and alternate labels of all concepts in the
+     * given language, created on first call.
+     * 
+     * @return the matcher or null if no labels in this language
+     */
+    public GEMETTextMatcher getTextMatcher(String language) {
+        Integer lang = languageIndex.get( language );
+        if (lang == null) {
+            return null;
+        }
+
+        synchronized (textMatchers) {
+            if (textMatchers[lang] == null) {
+                long startTime = System.currentTimeMillis();
+                textMatchers[lang] = new GEMETTextMatcher( getConceptLabels( lang ), Locale.forLanguageTag( language ) );
+                log.info( "Created GEMET text matcher of language {} with {} states in {} ms", language, textMatchers[lang].size(),
+                        System.currentTimeMillis() - startTime );
+            }
+            return textMatchers[lang];
+        }
+    }
+
+    /**
+     * @return preferred and alternate labels of all concepts by id, null for
+     *         groups, supergroups and concepts without label
+     */
+    private String[][] getConceptLabels(int lang) {
+        String[][] labelsById = new String[graph.size()][];
+        for (int id = 0; id < labelsById.length; id++) {
+            String prefLabel = prefLabels[lang][id];
+            if (prefLabel == null || graph.getType( id ) != ConceptType.CONCEPT) {
+                continue;
+            }
+            String[] alts = altLabels[lang][id];
+            labelsById[id] = new String[alts == null ? 1 : alts.length + 1];
+            labelsById[id][0] = prefLabel;
+            if (alts != null) {
+                System.arraycopy( alts, 0, labelsById[id], 1, alts.length );
+            }
+        }
+        return labelsById;
+    }
+
+    /**
+     * Rough estimation of the heap used by the snapshot in bytes.
+     */
+    public long estimateHeapSize() {
+        Map<String, Boolean> counted = new HashMap<String, Boolean>();
+        long size = graph.estimateHeapSize();
+        for (int lang = 0; lang < languages.length; lang++) {
+            size += 16 + graph.size() * 8L;
+            for (int id = 0; id < graph.size(); id++) {
+                String label = prefLabels[lang][id];
+                if (label != null && counted.put( label, Boolean.TRUE ) == null) {
+                    size += stringSize( label );
+                }
+                String[] alts = altLabels[lang][id];
+                if (alts != null) {
+                    size += 16 + alts.length * 8L;
+                    for (String alt : alts) {
+                        if (counted.put( alt, Boolean.TRUE ) == null) {
+                            size += stringSize( alt );
+                        }
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long stringSize(String value) {
+        // object header, fields, array header and latin1 or utf16 content
+        return 40 + value.length() * 2L;
+    }
+
+    private static String intern(Map<String, String> labelPool, String label) {
+        String pooled = labelPool.putIfAbsent( label, label );
+        return pooled == null ? label : pooled;
+    }
+
+    /**
+     * Collects the triples of the RDF dumps relevant for the snapshot.
+     */
+    private static class Builder {
+
+        private final Set<String> languageFilter;
+
+        private final GEMETConceptGraph.Builder graphBuilder = new GEMETConceptGraph.Builder();
+
+        private final Map<String, String> labelPool = new HashMap<String, String>();
+
+        /** preferred labels by language, the labels by id */
+        private final Map<String, Map<Integer, String>> prefLabels = new LinkedHashMap<String, Map<Integer, String>>();
+
+        /** labels via rdfs:label, used if no preferred label */
+        private final Map<String, Map<Integer, String>> rdfsLabels = new LinkedHashMap<String, Map<Integer, String>>();
+
+        private final Map<String, Map<Integer, List<String>>> altLabels = new LinkedHashMap<String, Map<Integer, List<String>>>();
+
+        Builder(Set<String> languageFilter) {
+            this.languageFilter = languageFilter;
+        }
+
+        void add(Triple triple) {
+            Node subject = triple.getSubject();
+            Node object = triple.getObject();
+            if (!subject.isURI() || GEMETConceptGraph.getConceptType( subject.getURI() ) == null) {
+                return;
+            }
+            String predicate = triple.getPredicate().getURI();
+
+            if (object.isLiteral()) {
+                String language = object.getLiteralLanguage();
+                if (language == null || language.length() == 0 || (languageFilter != null && !languageFilter.contains( language ))) {
+                    return;
+                }
+                String label = object.getLiteralLexicalForm().trim();
+
+                if (PREF_LABEL.equals( predicate )) {
+                    labels( prefLabels, language ).put( getId( subject.getURI() ), intern( labelPool, label ) );
+                } else if (RDFS_LABEL.equals( predicate )) {
+                    labels( rdfsLabels, language ).put( getId( subject.getURI() ), intern( labelPool, label ) );
+                } else if (ALT_LABEL.equals( predicate )) {
+                    altLabels.computeIfAbsent( language, l -> new HashMap<Integer, List<String>>() )
+                            .computeIfAbsent( getId( subject.getURI() ), id -> new ArrayList<String>( 2 ) ).add( intern( labelPool, label ) );
+                }
+
+            } else if (object.isURI() && GEMETConceptGraph.getConceptType( object.getURI() ) != null) {
+                for (ConceptRelation relation : CONCEPT_RELATIONS) {
+                    if (relation.toString().equals( predicate )) {
+                        // also adds inverse relation, dumps may contain only
+                        // one direction
+                        graphBuilder.addRelation( subject.getURI(), relation, object.getURI() );
+                        break;
+                    }
+                }
+            }
+        }
+
+        GEMETSnapshot build() {
+            GEMETConceptGraph graph = graphBuilder.build();
+            int nodeCount = graph.size();
+
+            // languages of preferred labels and labels
+            Map<String, Integer> languageIndex = new LinkedHashMap<String, Integer>();
+            for (String language : prefLabels.keySet()) {
+                languageIndex.putIfAbsent( language, languageIndex.size() );
+            }
+            for (String language : rdfsLabels.keySet()) {
+                languageIndex.putIfAbsent( language, languageIndex.size() );
+            }
+            String[] languages = languageIndex.keySet().toArray( new String[0] );
+
+            String[][] pref = new String[languages.length][nodeCount];
+            String[][][] alt = new String[languages.length][nodeCount][];
+            for (int lang = 0; lang < languages.length; lang++) {
+                copyLabels( rdfsLabels.get( languages[lang] ), pref[lang] );
+                // preferred label wins
+                copyLabels( prefLabels.get( languages[lang] ), pref[lang] );
+
+                Map<Integer, List<String>> alts = altLabels.get( languages[lang] );
+                if (alts != null) {
+                    for (Map.Entry<Integer, List<String>> entry : alts.entrySet()) {
+                        alt[lang][entry.getKey()] = entry.getValue().toArray( new String[0] );
+                    }
+                }
+            }
+
+            return new GEMETSnapshot( graph, languages, pref, alt );
+        }
+
+        private int getId(String uri) {
+            return graphBuilder.addNode( uri );
+        }
+
+        private static Map<Integer, String> labels(Map<String, Map<Integer, String>> labelsByLanguage, String language) {
+            return labelsByLanguage.computeIfAbsent( language, l -> new HashMap<Integer, String>() );
+        }
+
+        private static void copyLabels(Map<Integer, String> labels, String[] target) {
+            if (labels != null) {
+                for (Map.Entry<Integer, String> entry : labels.entrySet()) {
+                    target[entry.getKey()] = entry.getValue();
+                }
+            }
+        }
+    }
+}
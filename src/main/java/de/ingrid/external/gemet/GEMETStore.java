@@ -0,0 +1,646 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.simple.JSONValue;
+
+/**
+ * Persistent store of GEMET responses in an append only log file, so nodes
+ * start warm after a restart and keep working when the GEMET service is not
+ * reachable. Only the location of every response is kept in memory, responses
+ * are read from disk when requested.<br>
+ * Stored responses younger than maxAge are delivered without requesting the
+ * service. Older ones are delivered immediately and refreshed in the
+ * background (stale while revalidate), so they are still delivered when the
+ * service is down. In offline mode the service is never requested.<br>
+ * The store can be seeded from a log file of another node, e.g. for tests or
+ * installations without internet access.<br>
+ * The log is compacted when outdated responses take more space than the current
+ * ones.
+ */
+public class GEMETStore implements Closeable {
+
+    private final static Logger log = LogManager.getLogger( GEMETStore.class );
+
+    /** name of the log file in the store directory */
+    public static final String LOG_FILE = "responses.log";
+
+    private static final String FORMAT_JSON = "json";
+
+    private static final String FORMAT_TURTLE = "turtle";
+
+    /** number of tab separated fields of a record */
+    private static final int FIELD_COUNT = 7;
+
+    /** compact log only if outdated responses take more than this */
+    static final long COMPACT_MIN_OUTDATED_BYTES = 1024 * 1024;
+
+    /** Location of a stored response in the log file */
+    private static class Location {
+
+        final long time;
+        final String format;
+        final long offset;
+        final int length;
+
+        Location(long time, String format, long offset, int length) {
+            this.time = time;
+            this.format = format;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** A record read from a log file */
+    private static class Record {
+
+        final GEMETRequestKey key;
+        final Location location;
+        final String response;
+
+        Record(GEMETRequestKey key, Location location, String response) {
+            this.key = key;
+            this.location = location;
+            this.response = response;
+        }
+    }
+
+    private final Path logFile;
+
+    private final long maxAgeMillis;
+
+    private final boolean offline;
+
+    private final Map<GEMETRequestKey, Location> index = new ConcurrentHashMap<GEMETRequestKey, Location>();
+
+    /** keys currently refreshed in background */
+    private final Set<GEMETRequestKey> revalidating = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService revalidateExecutor;
+
+    /** notified about responses refreshed in background, may be null */
+    private volatile BiConsumer<GEMETRequestKey, Object> revalidationListener;
+
+    /**
+     * Reading responses shares the lock, writing, compacting and closing take
+     * it exclusively, so the file and the locations of the index are not
+     * changed while reading.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The log file. No FileChannel, an interrupt of a thread doing I/O on a
+     * FileChannel closes it for all threads, and threads of the fan out
+     * executor are interrupted on timeouts. Reads synchronize on the file,
+     * seeking and reading is not atomic.
+     */
+    private RandomAccessFile file;
+
+    private boolean closed;
+
+    /** bytes of responses in the log replaced by newer ones */
+    private long outdatedBytes;
+
+    /**
+     * Create store from settings in gemet.properties
+     * ("service.store.directory", "service.store.maxAge",
+     * "service.store.offline", "service.store.seedFile").
+     * 
+     * @return the store or null if no directory is configured
+     */
+    public static GEMETStore create(ResourceBundle gemetProps) throws IOException {
+        String directory = PropertiesUtils.getString( gemetProps, "service.store.directory", null );
+        if (directory == null) {
+            return null;
+        }
+
+        GEMETStore store = new GEMETStore( Paths.get( directory ), TimeUnit.HOURS.toMillis( PropertiesUtils.getLong( gemetProps, "service.store.maxAge", 168 ) ),
+                PropertiesUtils.getBoolean( gemetProps, "service.store.offline", false ) );
+
+        String seedFile = PropertiesUtils.getString( gemetProps, "service.store.seedFile", null );
+        if (seedFile != null) {
+            store.importFile( Paths.get( seedFile ) );
+        }
+
+        return store;
+    }
+
+    /**
+     * Open store in the given directory. Existing responses are indexed.
+     * 
+     * @param directory
+     *            directory of the log file, created if missing
+     * @param maxAgeMillis
+     *            responses older than this are refreshed in background
+     * @param offline
+     *            true = never request the service, only deliver stored
+     *            responses
+     */
+    public GEMETStore(Path directory, long maxAgeMillis, boolean offline) throws IOException {
+        this.maxAgeMillis = maxAgeMillis;
+        this.offline = offline;
+
+        Files.createDirectories( directory );
+        this.logFile = directory.resolve( LOG_FILE );
+
+        long start = System.currentTimeMillis();
+        long validLength = 0;
+        if (Files.exists( logFile )) {
+            try (InputStream in = new BufferedInputStream( Files.newInputStream( logFile ) )) {
+                RecordReader reader = new RecordReader( in );
+                Record record;
+                while ((record = reader.next( false )) != null) {
+                    Location outdated = index.put( record.key, record.location );
+                    if (outdated != null) {
+                        outdatedBytes += outdated.length;
+                    }
+                }
+                validLength = reader.validLength;
+            }
+        }
+
+        this.file = new RandomAccessFile( logFile.toFile(), "rw" );
+        if (file.length() > validLength) {
+            // last record was not written completely, e.g. process was killed
+            log.warn( "Incomplete record at end of {}, we remove it.", logFile );
+            file.setLength( validLength );
+        }
+
+        // rewrite log if it mainly contains outdated records
+        if (isCompactionNeeded()) {
+            compact();
+        }
+
+        this.revalidateExecutor = offline ? null : Executors.newSingleThreadExecutor( r -> {
+            Thread thread = new Thread( r, "gemet-store-revalidate" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+
+        log.info( "Opened GEMET store {} with {} responses in {} ms{}", logFile, index.size(), System.currentTimeMillis() - start, offline ? " (offline)" : "" );
+    }
+
+    /**
+     * Get stored response or request the service and store the response.
+     * 
+     * @param key
+     *            identifies the request
+     * @param loader
+     *            requests the service
+     * @return the response
+     * @throws FileNotFoundException
+     *             if offline and the response is not stored
+     * @throws Exception
+     *             the exception of the loader if the response is not stored
+     */
+    public Object get(GEMETRequestKey key, Callable<Object> loader) throws Exception {
+        Location location = null;
+        Object value = null;
+        lock.readLock().lock();
+        try {
+            location = closed ? null : index.get( key );
+            if (location != null) {
+                value = read( location );
+            }
+        } catch (Exception e) {
+            log.error( "Problems reading stored response {}, we request it again.", key, e );
+            location = null;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (location != null) {
+            if (!offline && System.currentTimeMillis() - location.time > maxAgeMillis) {
+                revalidate( key, loader );
+            }
+            return value;
+        }
+
+        if (offline) {
+            throw new FileNotFoundException( "Not in offline store: " + key );
+        }
+
+        value = loader.call();
+        try {
+            put( key, value );
+        } catch (IOException e) {
+            // store is optional, the response is delivered anyway
+            log.error( "Problems storing response {}, we deliver it without storing.", key, e );
+        }
+        return value;
+    }
+
+    /**
+     * Set listener notified about responses refreshed in background, e.g. to
+     * replace the response in a cache in front of the store.
+     */
+    public void setRevalidationListener(BiConsumer<GEMETRequestKey, Object> revalidationListener) {
+        this.revalidationListener = revalidationListener;
+    }
+
+    public boolean contains(GEMETRequestKey key) {
+        return index.containsKey( key );
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Store the response. Only JSON responses (JSONObject, JSONArray) and RDF
+     * models are stored.
+     */
+    public void put(GEMETRequestKey key, Object value) throws IOException {
+        String format;
+        String response;
+        if (value instanceof Model) {
+            StringWriter writer = new StringWriter();
+            ((Model) value).write( writer, "TURTLE" );
+            format = FORMAT_TURTLE;
+            response = writer.toString();
+        } else if (value instanceof Map || value instanceof List) {
+            format = FORMAT_JSON;
+            response = JSONValue.toJSONString( value );
+        } else {
+            return;
+        }
+
+        append( key, System.currentTimeMillis(), format, response );
+    }
+
+    /**
+     * Import all responses of the given log file which are not stored yet.
+     * 
+     * @param file
+     *            log file of another store
+     * @return number of imported responses
+     */
+    public int importFile(Path file) throws IOException {
+        int importCount = 0;
+        try (InputStream in = new BufferedInputStream( Files.newInputStream( file ) )) {
+            RecordReader reader = new RecordReader( in );
+            Record record;
+            while ((record = reader.next( true )) != null) {
+                if (!index.containsKey( record.key )) {
+                    append( record.key, record.location.time, record.location.format, record.response );
+                    importCount++;
+                }
+            }
+        }
+
+        log.info( "Imported {} responses from {} to GEMET store", importCount, file );
+        return importCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (revalidateExecutor != null) {
+            revalidateExecutor.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            file.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void revalidate(GEMETRequestKey key, Callable<Object> loader) {
+        if (!revalidating.add( key )) {
+            return;
+        }
+
+        revalidateExecutor.execute( () -> {
+            try {
+                Object value = loader.call();
+                try {
+                    put( key, value );
+                } catch (IOException e) {
+                    log.error( "Problems storing refreshed response {}.", key, e );
+                }
+                BiConsumer<GEMETRequestKey, Object> listener = revalidationListener;
+                if (listener != null) {
+                    listener.accept( key, value );
+                }
+            } catch (Exception e) {
+                log.warn( "Problems refreshing stored response {}, we keep stored one: {}", key, e.toString() );
+            } finally {
+                revalidating.remove( key );
+            }
+        } );
+    }
+
+    private Object read(Location location) throws Exception {
+        String response = readResponse( location );
+
+        if (FORMAT_TURTLE.equals( location.format )) {
+            Model model = ModelFactory.createDefaultModel();
+            model.read( new StringReader( response ), null, "TURTLE" );
+            return model;
+        }
+        return GEMETJSONReader.read( new StringReader( response ) );
+    }
+
+    private void append(GEMETRequestKey key, long time, String format, String response) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            write( key, time, format, response );
+            if (isCompactionNeeded()) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read the unescaped response at the given location, caller has to hold
+     * the read or write lock.
+     */
+    private String readResponse(Location location) throws IOException {
+        byte[] bytes = new byte[location.length];
+        synchronized (file) {
+            file.seek( location.offset );
+            // throws EOFException if file is too short
+            file.readFully( bytes );
+        }
+        return unescape( new String( bytes, StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Outdated responses take more space than current ones.
+     */
+    private boolean isCompactionNeeded() throws IOException {
+        return outdatedBytes > COMPACT_MIN_OUTDATED_BYTES && outdatedBytes > file.length() - outdatedBytes;
+    }
+
+    /**
+     * Append record to the log, caller has to hold the write lock.
+     */
+    private void write(GEMETRequestKey key, long time, String format, String response) throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append( time ).append( '\t' );
+        header.append( format ).append( '\t' );
+        header.append( escape( key.getEndpoint() ) ).append( '\t' );
+        header.append( escape( key.getConcept() ) ).append( '\t' );
+        header.append( escape( key.getRelation() ) ).append( '\t' );
+        header.append( escape( key.getLanguage() ) ).append( '\t' );
+        byte[] headerBytes = header.toString().getBytes( StandardCharsets.UTF_8 );
+        byte[] responseBytes = escape( response ).getBytes( StandardCharsets.UTF_8 );
+
+        byte[] record = new byte[headerBytes.length + responseBytes.length + 1];
+        System.arraycopy( headerBytes, 0, record, 0, headerBytes.length );
+        System.arraycopy( responseBytes, 0, record, headerBytes.length, responseBytes.length );
+        record[record.length - 1] = '\n';
+
+        long offset = file.length();
+        file.seek( offset );
+        file.write( record );
+
+        Location outdated = index.put( key, new Location( time, format, offset + headerBytes.length, responseBytes.length ) );
+        if (outdated != null) {
+            outdatedBytes += outdated.length;
+        }
+    }
+
+    /**
+     * Rewrite log file with current responses only, caller has to hold the
+     * write lock (or be the constructor).
+     */
+    private void compact() throws IOException {
+        Path compactFile = logFile.resolveSibling( LOG_FILE + ".compact" );
+        List<GEMETRequestKey> keys = new ArrayList<GEMETRequestKey>( index.keySet() );
+        List<Location> locations = new ArrayList<Location>( keys.size() );
+        List<String> responses = new ArrayList<String>( keys.size() );
+        for (GEMETRequestKey key : keys) {
+            Location location = index.get( key );
+            locations.add( location );
+            responses.add( readResponse( location ) );
+        }
+
+        file.close();
+        file = new RandomAccessFile( compactFile.toFile(), "rw" );
+        file.setLength( 0 );
+        for (int i = 0; i < keys.size(); i++) {
+            write( keys.get( i ), locations.get( i ).time, locations.get( i ).format, responses.get( i ) );
+        }
+        file.close();
+        outdatedBytes = 0;
+
+        Files.move( compactFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        file = new RandomAccessFile( logFile.toFile(), "rw" );
+
+        log.info( "Compacted GEMET store {} to {} responses", logFile, keys.size() );
+    }
+
+    /**
+     * Reads the records of a log file and tracks their position.
+     */
+    private static class RecordReader {
+
+        private final InputStream in;
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream( 4096 );
+
+        /** position of the next line */
+        private long position = 0;
+
+        /** length of the file up to the last complete record */
+        long validLength = 0;
+
+        RecordReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @param withResponse
+         *            true = also deliver the response
+         * @return next record or null if end of file
+         */
+        Record next(boolean withResponse) throws IOException {
+            while (true) {
+                line.reset();
+                int b;
+                while ((b = in.read()) != -1 && b != '\n') {
+                    line.write( b );
+                }
+                if (b == -1) {
+                    // incomplete last line is ignored
+                    return null;
+                }
+
+                long lineStart = position;
+                position += line.size() + 1;
+                validLength = position;
+
+                Record record = parse( line.toByteArray(), lineStart, withResponse );
+                if (record != null) {
+                    return record;
+                }
+            }
+        }
+
+        private Record parse(byte[] bytes, long lineStart, boolean withResponse) {
+            // find start of fields, the tab is never part of an UTF-8 multi
+            // byte sequence
+            int[] fieldStart = new int[FIELD_COUNT];
+            int field = 1;
+            for (int i = 0; i < bytes.length && field < FIELD_COUNT; i++) {
+                if (bytes[i] == '\t') {
+                    fieldStart[field++] = i + 1;
+                }
+            }
+            if (field < FIELD_COUNT) {
+                log.warn( "Invalid record in GEMET store at position {}, we skip it.", lineStart );
+                return null;
+            }
+
+            String[] fields = new String[FIELD_COUNT - 1];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new String( bytes, fieldStart[i], fieldStart[i + 1] - fieldStart[i] - 1, StandardCharsets.UTF_8 );
+            }
+
+            long time;
+            try {
+                time = Long.parseLong( fields[0] );
+            } catch (NumberFormatException e) {
+                log.warn( "Invalid time of record in GEMET store at position {}, we skip it.", lineStart );
+                return null;
+            }
+
+            int responseStart = fieldStart[FIELD_COUNT - 1];
+            GEMETRequestKey key = new GEMETRequestKey( unescape( fields[2] ), unescape( fields[3] ), emptyToNull( unescape( fields[4] ) ),
+                    emptyToNull( unescape( fields[5] ) ) );
+            Location location = new Location( time, fields[1], lineStart + responseStart, bytes.length - responseStart );
+            String response = withResponse ? unescape( new String( bytes, responseStart, bytes.length - responseStart, StandardCharsets.UTF_8 ) ) : null;
+
+            return new Record( key, location, response );
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    /**
+     * Escape tabs and line breaks, so every record is one line with tab
+     * separated fields. null is written as empty string.
+     */
+    static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        StringBuilder result = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt( i );
+            String replacement = null;
+            if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            }
+
+            if (replacement != null && result == null) {
+                result = new StringBuilder( value.length() + 16 );
+                result.append( value, 0, i );
+            }
+            if (result != null) {
+                if (replacement != null) {
+                    result.append( replacement );
+                } else {
+                    result.append( c );
+                }
+            }
+        }
+
+        return result == null ? value : result.toString();
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf( '\\' ) == -1) {
+            return value;
+        }
+
+        StringBuilder result = new StringBuilder( value.length() );
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt( i );
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt( ++i );
+                if (next == 't') {
+                    result.append( '\t' );
+                } else if (next == 'n') {
+                    result.append( '\n' );
+                } else if (next == 'r') {
+                    result.append( '\r' );
+                } else {
+                    result.append( next );
+                }
+            } else {
+                result.append( c );
+            }
+        }
+
+        return result.toString();
+    }
+}
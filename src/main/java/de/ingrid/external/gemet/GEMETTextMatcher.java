@@ -0,0 +1,230 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds all concepts whose labels occur in a text, in one pass over the text.
+ * Labels and text are split into words via {@link TextUtils#tokenize(String)}
+ * and the words are folded like in {@link GEMETLabelIndex}. The words of all
+ * labels form an Aho-Corasick automaton, so labels of several words (e.g.
+ * "air pollution") are found, too.
+ */
+public class GEMETTextMatcher {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Locale locale;
+
+    /** ids of all words of the labels */
+    private final Map<String, Integer> wordIds;
+
+    /**
+     * start of the transitions of every state, the transitions of
+     * <code>state</code> are
+     * <code>transitionOffsets[state] ... transitionOffsets[state + 1] - 1</code>
+     */
+    private final int[] transitionOffsets;
+
+    /** word ids of the transitions, sorted per state */
+    private final int[] transitionWords;
+
+    /** next state of the transitions */
+    private final int[] transitionTargets;
+
+    /** state to continue with if no transition, by state */
+    private final int[] failures;
+
+    /** concept ids of all labels ending in state, by state */
+    private final int[][] outputs;
+
+    /** number of concept ids, for result bit sets */
+    private final int idCount;
+
+    /**
+     * @param labelsById
+     *            labels of every concept id, null if none
+     * @param locale
+     *            used for case folding of labels and texts
+     */
+    public GEMETTextMatcher(String[][] labelsById, Locale locale) {
+        this.locale = locale;
+        this.idCount = labelsById.length;
+        this.wordIds = new HashMap<String, Integer>();
+        // transitions (state << 32 | word id) to next state while building
+        Map<Long, Integer> transitions = new HashMap<Long, Integer>();
+
+        // trie of the words of all labels, state 0 is the root
+        List<int[]> stateOutputs = new ArrayList<int[]>();
+        stateOutputs.add( EMPTY );
+        for (int id = 0; id < labelsById.length; id++) {
+            if (labelsById[id] == null) {
+                continue;
+            }
+            for (String label : labelsById[id]) {
+                List<String> words = TextUtils.tokenize( GEMETLabelIndex.fold( label, locale ) );
+                if (words.isEmpty()) {
+                    continue;
+                }
+                int state = 0;
+                for (String word : words) {
+                    Integer wordId = wordIds.get( word );
+                    if (wordId == null) {
+                        wordId = wordIds.size();
+                        wordIds.put( word, wordId );
+                    }
+                    Integer next = transitions.get( key( state, wordId ) );
+                    if (next == null) {
+                        next = stateOutputs.size();
+                        stateOutputs.add( EMPTY );
+                        transitions.put( key( state, wordId ), next );
+                    }
+                    state = next;
+                }
+                stateOutputs.set( state, append( stateOutputs.get( state ), id ) );
+            }
+        }
+
+        // transitions in compressed sparse row format, sorted keys are
+        // ordered by state and word id
+        int stateCount = stateOutputs.size();
+        long[] keys = new long[transitions.size()];
+        int index = 0;
+        for (Long key : transitions.keySet()) {
+            keys[index++] = key;
+        }
+        Arrays.sort( keys );
+        this.transitionOffsets = new int[stateCount + 1];
+        this.transitionWords = new int[keys.length];
+        this.transitionTargets = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            transitionOffsets[(int) (keys[i] >>> 32) + 1]++;
+            transitionWords[i] = (int) keys[i];
+            transitionTargets[i] = transitions.get( keys[i] );
+        }
+        for (int state = 0; state < stateCount; state++) {
+            transitionOffsets[state + 1] += transitionOffsets[state];
+        }
+
+        // failure links breadth first, outputs include those of failure state
+        this.failures = new int[stateCount];
+        this.outputs = stateOutputs.toArray( new int[stateCount][] );
+        int[] queue = new int[stateCount];
+        int queueEnd = 1;
+        for (int queueStart = 0; queueStart < queueEnd; queueStart++) {
+            int state = queue[queueStart];
+            for (int i = transitionOffsets[state]; i < transitionOffsets[state + 1]; i++) {
+                int wordId = transitionWords[i];
+                int next = transitionTargets[i];
+                if (state != 0) {
+                    failures[next] = step( failures[state], wordId );
+                    outputs[next] = merge( outputs[next], outputs[failures[next]] );
+                }
+                queue[queueEnd++] = next;
+            }
+        }
+    }
+
+    /**
+     * Find concepts having a label occurring in the given text as complete
+     * words, ignoring case.
+     * 
+     * @return distinct concept ids in order of occurrence in the text
+     */
+    public int[] find(String text) {
+        if (text == null) {
+            return EMPTY;
+        }
+
+        int[] result = new int[16];
+        int count = 0;
+        BitSet seen = new BitSet( idCount );
+        int state = 0;
+        for (String word : TextUtils.tokenize( GEMETLabelIndex.fold( text, locale ) )) {
+            Integer wordId = wordIds.get( word );
+            // word of no label, no label continues
+            state = wordId == null ? 0 : step( state, wordId );
+            for (int id : outputs[state]) {
+                if (!seen.get( id )) {
+                    seen.set( id );
+                    if (count == result.length) {
+                        result = Arrays.copyOf( result, count * 2 );
+                    }
+                    result[count++] = id;
+                }
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+
+    /** Number of states of the automaton */
+    public int size() {
+        return outputs.length;
+    }
+
+    /**
+     * @return next state after the given word, following failure links
+     */
+    private int step(int state, int wordId) {
+        while (true) {
+            int index = Arrays.binarySearch( transitionWords, transitionOffsets[state], transitionOffsets[state + 1], wordId );
+            if (index >= 0) {
+                return transitionTargets[index];
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failures[state];
+        }
+    }
+
+    private static long key(int state, int wordId) {
+        return ((long) state << 32) | wordId;
+    }
+
+    private static int[] append(int[] values, int value) {
+        for (int existing : values) {
+            if (existing == value) {
+                return values;
+            }
+        }
+        int[] result = Arrays.copyOf( values, values.length + 1 );
+        result[values.length] = value;
+        return result;
+    }
+
+    private static int[] merge(int[] values, int[] others) {
+        int[] result = values;
+        for (int other : others) {
+            result = append( result, other );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.Closeable;
+import java.io.InputStream;
+
+/**
+ * Executes the HTTP requests of the GEMETClient. Implementations have to be
+ * thread safe, one instance is shared by all requests of a client.
+ */
+public interface GEMETTransport extends Closeable {
+
+    /**
+     * Reads the content of a response. The content stream is closed by the
+     * transport afterwards.
+     */
+    @FunctionalInterface
+    interface ResponseReader<T> {
+        T read(InputStream content) throws Exception;
+    }
+
+    /**
+     * Fetch the given URL and hand the response content to the given reader.
+     * 
+     * @param url
+     *            full request URL
+     * @param accept
+     *            value of the Accept header, e.g. "application/rdf+xml"
+     * @param reader
+     *            processes the response content
+     * @return the result of the reader
+     * @throws java.io.FileNotFoundException
+     *             if the requested resource does not exist (HTTP 404)
+     * @throws Exception
+     *             on any other problem, e.g. connection problems, timeouts or
+     *             HTTP error status
+     */
+    <T> T get(String url, String accept, ResponseReader<T> reader) throws Exception;
+}
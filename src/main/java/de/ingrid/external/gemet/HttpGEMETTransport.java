@@ -0,0 +1,162 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Transport based on one shared Apache HttpClient with a connection pool, so
+ * connections are kept alive and reused by all requests. Pool size, timeouts,
+ * keep alive and compression are set from gemet.properties.
+ */
+public class HttpGEMETTransport implements GEMETTransport {
+
+    private final static Logger log = LogManager.getLogger( HttpGEMETTransport.class );
+
+    /** The GEMET service needs a User-Agent, otherwise requests may fail */
+    private static final String USER_AGENT = "Request-Promise";
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final CloseableHttpClient httpClient;
+
+    public HttpGEMETTransport(ResourceBundle gemetProps) {
+        int maxConnections = PropertiesUtils.getInt( gemetProps, "service.http.maxConnections", 20 );
+        int maxConnectionsPerRoute = PropertiesUtils.getInt( gemetProps, "service.http.maxConnectionsPerRoute", 10 );
+        int connectTimeout = PropertiesUtils.getInt( gemetProps, "service.http.connectTimeout", 5000 );
+        int readTimeout = PropertiesUtils.getInt( gemetProps, "service.http.readTimeout", 20000 );
+        int connectionRequestTimeout = PropertiesUtils.getInt( gemetProps, "service.http.connectionRequestTimeout", 5000 );
+        long keepAliveMillis = PropertiesUtils.getLong( gemetProps, "service.http.keepAlive", 30 ) * 1000;
+        boolean gzip = PropertiesUtils.getBoolean( gemetProps, "service.http.gzip", true );
+
+        // keep SSL settings from system properties like the former
+        // HttpClientBuilder.useSystemProperties() did
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory> create()
+                .register( "http", PlainConnectionSocketFactory.getSocketFactory() )
+                .register( "https", SSLConnectionSocketFactory.getSystemSocketFactory() )
+                .build();
+
+        this.connectionManager = new PoolingHttpClientConnectionManager( socketFactories );
+        this.connectionManager.setMaxTotal( maxConnections );
+        this.connectionManager.setDefaultMaxPerRoute( maxConnectionsPerRoute );
+        // check connections which have been idle for a while before reusing
+        // them, server may have closed them in the meantime
+        this.connectionManager.setValidateAfterInactivity( 2000 );
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout( connectTimeout )
+                .setSocketTimeout( readTimeout )
+                .setConnectionRequestTimeout( connectionRequestTimeout )
+                .build();
+
+        // use keep alive of server if sent, else our default
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration( response, context );
+            return keepAlive > 0 ? keepAlive : keepAliveMillis;
+        };
+
+        HttpClientBuilder builder = HttpClientBuilder.create()
+                .useSystemProperties()
+                .setConnectionManager( connectionManager )
+                .setDefaultRequestConfig( requestConfig )
+                .setKeepAliveStrategy( keepAliveStrategy )
+                .evictExpiredConnections()
+                .evictIdleConnections( keepAliveMillis, TimeUnit.MILLISECONDS );
+        // gzip/deflate is requested and decoded by default
+        if (!gzip) {
+            builder.disableContentCompression();
+        }
+
+        this.httpClient = builder.build();
+
+        if (log.isDebugEnabled()) {
+            log.debug( "HTTP transport: maxConnections={}, maxConnectionsPerRoute={}, connectTimeout={}, readTimeout={}, keepAlive={}, gzip={}", maxConnections,
+                    maxConnectionsPerRoute, connectTimeout, readTimeout, keepAliveMillis, gzip );
+        }
+    }
+
+    @Override
+    public <T> T get(String url, String accept, ResponseReader<T> reader) throws Exception {
+        HttpGet getMethod = new HttpGet( url );
+        getMethod.addHeader( "User-Agent", USER_AGENT );
+        if (accept != null) {
+            getMethod.addHeader( "Accept", accept );
+        }
+
+        // abort request if the fan out task executing it is cancelled, blocking
+        // I/O is not interrupted
+        FanOutExecutor.setCancelAction( getMethod::abort );
+
+        // always close response, so the connection is released to the pool
+        try (CloseableHttpResponse response = httpClient.execute( getMethod )) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_FOUND) {
+                throw new FileNotFoundException( url );
+            }
+            if (status >= HttpStatus.SC_BAD_REQUEST) {
+                throw new IOException( "HTTP status " + status + " from " + url );
+            }
+
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException( "No content from " + url );
+            }
+
+            // closing the content stream consumes the rest of the content, so
+            // the connection can be kept alive
+            try (InputStream content = entity.getContent()) {
+                return reader.read( content );
+            }
+        } finally {
+            FanOutExecutor.setCancelAction( null );
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+        connectionManager.close();
+    }
+}
@@ -0,0 +1,97 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class PropertiesUtils {
+
+    private final static Logger log = LogManager.getLogger( PropertiesUtils.class );
+
+    /**
+     * Get optional property from gemet.properties.
+     * 
+     * @param props
+     *            the properties
+     * @param key
+     *            property key
+     * @param defaultValue
+     *            returned if property is missing or empty
+     * @return trimmed property value or default value
+     */
+    public static String getString(ResourceBundle props, String key, String defaultValue) {
+        try {
+            String value = props.getString( key ).trim();
+            if (value.length() > 0) {
+                return value;
+            }
+        } catch (MissingResourceException e) {
+            if (log.isDebugEnabled()) {
+                log.debug( "Missing '{}' in gemet.properties, we use default: {}", key, defaultValue );
+            }
+        }
+
+        return defaultValue;
+    }
+
+    public static int getInt(ResourceBundle props, String key, int defaultValue) {
+        String value = getString( props, key, null );
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt( value );
+        } catch (NumberFormatException e) {
+            log.warn( "Invalid number '{}' in '{}' of gemet.properties, we use default: {}", value, key, defaultValue );
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(ResourceBundle props, String key, long defaultValue) {
+        String value = getString( props, key, null );
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong( value );
+        } catch (NumberFormatException e) {
+            log.warn( "Invalid number '{}' in '{}' of gemet.properties, we use default: {}", value, key, defaultValue );
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(ResourceBundle props, String key, boolean defaultValue) {
+        String value = getString( props, key, null );
+        if (value == null) {
+            return defaultValue;
+        }
+
+        return Boolean.parseBoolean( value );
+    }
+}
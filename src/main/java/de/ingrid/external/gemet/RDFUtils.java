@@ -59,11 +59,15 @@ public class RDFUtils {
     private static RDFNode getObject(Resource res, String namespace, String name) {
         String nsURI = res.getModel().getNsPrefixURI( namespace );
         Property prop = res.getModel().createProperty( nsURI + name );
-        SimpleSelector selector = new SimpleSelector(null, prop, (RDFNode)null);
-        StmtIterator statements = res.getModel().listStatements(selector);
-        if (statements.hasNext()) {
-            Statement next = statements.next();
-            return next.getObject();
+        // only statements of the resource, found via subject index of model
+        StmtIterator statements = res.listProperties( prop );
+        try {
+            if (statements.hasNext()) {
+                Statement next = statements.next();
+                return next.getObject();
+            }
+        } finally {
+            statements.close();
         }
         return null;
     }
@@ -74,18 +78,17 @@ public class RDFUtils {
             nsURI = namespace;
         Property prop = res.getModel().createProperty( nsURI + name );
 
-        SimpleSelector selector = new SimpleSelector(null, prop, (RDFNode)null);
-
-        StmtIterator statements = res.getModel().listStatements(selector);
-        while (statements.hasNext()) {
-            Statement stmt = statements.next();
-            try {
-                if (stmt.getLanguage().equals( lang )) {
-                    return stmt.getObject();
+        // only statements of the resource, found via subject index of model
+        StmtIterator statements = res.listProperties( prop );
+        try {
+            while (statements.hasNext()) {
+                RDFNode object = statements.next().getObject();
+                if (object.isLiteral() && lang.equals( object.asLiteral().getLanguage() )) {
+                    return object;
                 }
-            } catch (LiteralRequiredException e) {
-                continue;
             }
+        } finally {
+            statements.close();
         }
         return null;
     }
@@ -0,0 +1,73 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TextUtils {
+
+    /**
+     * Split text into words: runs of letters and digits (also combining marks
+     * like decomposed umlauts), everything else separates words. So no
+     * punctuation is left at words, e.g. "Wasser," or "(Luft)".
+     * 
+     * @param text
+     *            arbitrary text
+     * @return words in order of the text, empty list if none
+     */
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<String>();
+        if (text == null) {
+            return words;
+        }
+
+        int start = -1;
+        int pos = 0;
+        while (pos < text.length()) {
+            int codePoint = text.codePointAt( pos );
+            if (isWordChar( codePoint )) {
+                if (start < 0) {
+                    start = pos;
+                }
+            } else if (start >= 0) {
+                words.add( text.substring( start, pos ) );
+                start = -1;
+            }
+            pos += Character.charCount( codePoint );
+        }
+        if (start >= 0) {
+            words.add( text.substring( start ) );
+        }
+
+        return words;
+    }
+
+    private static boolean isWordChar(int codePoint) {
+        if (Character.isLetterOrDigit( codePoint )) {
+            return true;
+        }
+        int type = Character.getType( codePoint );
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK;
+    }
+}
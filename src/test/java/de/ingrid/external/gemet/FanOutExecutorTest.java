@@ -0,0 +1,164 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class FanOutExecutorTest {
+
+    private ExecutorService executor;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void invokeAllKeepsOrder() {
+        executor = Executors.newFixedThreadPool( 4 );
+        try (FanOutExecutor fanOut = new FanOutExecutor( executor, 0, 0 )) {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                int value = i;
+                // later tasks finish first
+                tasks.add( () -> {
+                    Thread.sleep( (8 - value) * 10 );
+                    return value;
+                } );
+            }
+
+            assertThat( fanOut.invokeAll( tasks ), contains( 0, 1, 2, 3, 4, 5, 6, 7 ) );
+        }
+    }
+
+    @Test
+    void invokeAllSkipsFailedAndLateResults() {
+        executor = Executors.newFixedThreadPool( 2 );
+        try (FanOutExecutor fanOut = new FanOutExecutor( executor, 0, 200 )) {
+            List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+            tasks.add( () -> "fast" );
+            tasks.add( () -> {
+                throw new IllegalStateException( "failed" );
+            } );
+            tasks.add( () -> {
+                Thread.sleep( 5000 );
+                return "slow";
+            } );
+
+            assertThat( fanOut.invokeAll( tasks ), contains( "fast", null, null ) );
+        }
+    }
+
+    @Test
+    void nestedInvokeAllRunsInWorker() {
+        // only one worker, nested fan out would wait forever if not executed
+        // in the calling worker
+        executor = Executors.newFixedThreadPool( 1 );
+        try (FanOutExecutor fanOut = new FanOutExecutor( executor, 0, 5000 )) {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < 3; i++) {
+                int value = i;
+                tasks.add( () -> {
+                    List<Callable<Integer>> subTasks = new ArrayList<Callable<Integer>>();
+                    subTasks.add( () -> value * 10 );
+                    subTasks.add( () -> value * 10 + 1 );
+                    return fanOut.invokeAll( subTasks ).get( 1 );
+                } );
+            }
+
+            assertThat( fanOut.invokeAll( tasks ), contains( 1, 11, 21 ) );
+        }
+    }
+
+    @Test
+    void invokeAllOfOneCallShareDeadline() {
+        executor = Executors.newFixedThreadPool( 2 );
+        try (FanOutExecutor fanOut = new FanOutExecutor( executor, 0, 300 )) {
+            List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+            tasks.add( () -> {
+                Thread.sleep( 200 );
+                return "first";
+            } );
+            tasks.add( () -> "second" );
+
+            long start = System.nanoTime();
+            long deadline = fanOut.newDeadline();
+            assertThat( fanOut.invokeAll( tasks, deadline ), contains( "first", "second" ) );
+            // second batch only gets the rest of the deadline
+            assertThat( fanOut.invokeAll( tasks, deadline ), contains( null, null ) );
+            assertThat( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ), lessThan( 500L ) );
+        }
+    }
+
+    @Test
+    void cancelledTaskAbortsRequestAndSkipsSubTasks() throws Exception {
+        executor = Executors.newFixedThreadPool( 2 );
+        CountDownLatch aborted = new CountDownLatch( 1 );
+        AtomicInteger executedSubTasks = new AtomicInteger();
+        try (FanOutExecutor fanOut = new FanOutExecutor( executor, 0, 100 )) {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            tasks.add( () -> 1 );
+            tasks.add( () -> {
+                List<Callable<Integer>> subTasks = new ArrayList<Callable<Integer>>();
+                // blocking request, not interruptible but aborted
+                subTasks.add( () -> {
+                    CountDownLatch response = new CountDownLatch( 1 );
+                    FanOutExecutor.setCancelAction( response::countDown );
+                    try {
+                        while (response.getCount() > 0) {
+                            // ignores interrupts like blocking I/O
+                            LockSupport.parkNanos( 1000000 );
+                        }
+                        aborted.countDown();
+                        return 0;
+                    } finally {
+                        FanOutExecutor.setCancelAction( null );
+                    }
+                } );
+                subTasks.add( () -> executedSubTasks.incrementAndGet() );
+                return fanOut.invokeAll( subTasks ).get( 0 );
+            } );
+
+            assertThat( fanOut.invokeAll( tasks ), contains( 1, null ) );
+            assertThat( aborted.await( 1, TimeUnit.SECONDS ), is( true ) );
+            Thread.sleep( 50 );
+            assertThat( executedSubTasks.get(), is( 0 ) );
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+public class GEMETCacheTest {
+
+    static GEMETRequestKey key(String concept) {
+        return new GEMETRequestKey( "getConcept", concept, null, "de" );
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws Exception {
+        GEMETCache cache = new GEMETCache( 2, 0 );
+        cache.get( key( "a" ), () -> "A" );
+        cache.get( key( "b" ), () -> "B" );
+        // use "a", so "b" is the least recently used one
+        cache.get( key( "a" ), () -> "not loaded" );
+        cache.get( key( "c" ), () -> "C" );
+
+        assertThat( cache.getIfPresent( key( "a" ) ), equalTo( "A" ) );
+        assertThat( cache.getIfPresent( key( "b" ) ), is( nullValue() ) );
+        assertThat( cache.getIfPresent( key( "c" ) ), equalTo( "C" ) );
+
+        GEMETCache.Stats stats = cache.getStats();
+        assertThat( stats.getHitCount(), is( 1L ) );
+        assertThat( stats.getMissCount(), is( 3L ) );
+        assertThat( stats.getEvictionCount(), is( 1L ) );
+        assertThat( stats.getSize(), is( 2 ) );
+    }
+
+    @Test
+    void evictsInBatchesKeepingRecentlyUsed() throws Exception {
+        GEMETCache cache = new GEMETCache( 32, 0 );
+        for (int i = 0; i < 32; i++) {
+            cache.put( key( "k" + i ), "V" + i );
+        }
+        // use first half, so they are kept
+        for (int i = 0; i < 16; i++) {
+            assertThat( cache.getIfPresent( key( "k" + i ) ), equalTo( "V" + i ) );
+        }
+        cache.put( key( "new" ), "NEW" );
+
+        // one entry more than maximum plus 1/16 of maximum evicted
+        GEMETCache.Stats stats = cache.getStats();
+        assertThat( stats.getEvictionCount(), is( 3L ) );
+        assertThat( stats.getSize(), is( 30 ) );
+        for (int i = 0; i < 16; i++) {
+            assertThat( cache.getIfPresent( key( "k" + i ) ), equalTo( "V" + i ) );
+        }
+    }
+
+    @Test
+    void expiresAfterTimeToLive() throws Exception {
+        GEMETCache cache = new GEMETCache( 10, 50 );
+        cache.get( key( "a" ), () -> "A" );
+        Thread.sleep( 100 );
+
+        assertThat( cache.get( key( "a" ), () -> "A2" ), equalTo( "A2" ) );
+        assertThat( cache.getStats().getExpiredCount(), is( 1L ) );
+    }
+
+    @Test
+    void doesNotCacheFailures() throws Exception {
+        GEMETCache cache = new GEMETCache( 10, 0 );
+        assertThrows( IOException.class, () -> cache.get( key( "a" ), () -> {
+            throw new IOException( "service down" );
+        } ) );
+
+        assertThat( cache.get( key( "a" ), () -> "A" ), equalTo( "A" ) );
+        assertThat( cache.getStats().getLoadFailureCount(), is( 1L ) );
+    }
+
+    @Test
+    void coalescesConcurrentMisses() throws Exception {
+        GEMETCache cache = new GEMETCache( 10, 0 );
+        AtomicInteger loadCount = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 4; i++) {
+                results.add( executor.submit( () -> cache.get( key( "a" ), () -> {
+                    loadCount.incrementAndGet();
+                    release.await();
+                    return "A";
+                } ) ) );
+            }
+
+            // wait until all requests are waiting for the first one
+            while (cache.getStats().getCoalescedCount() < 3) {
+                Thread.sleep( 10 );
+            }
+            release.countDown();
+
+            for (Future<Object> result : results) {
+                assertThat( result.get(), equalTo( "A" ) );
+            }
+            assertThat( loadCount.get(), is( 1 ) );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void waitingThreadLoadsIfLoadingTaskIsCancelled() throws Exception {
+        GEMETCache cache = new GEMETCache( 10, 0 );
+        CountDownLatch loading = new CountDownLatch( 1 );
+        Callable<Object> cancelledCall = () -> cache.get( key( "a" ), () -> {
+            AtomicBoolean aborted = new AtomicBoolean();
+            FanOutExecutor.setCancelAction( () -> aborted.set( true ) );
+            loading.countDown();
+            // request blocks until aborted when the deadline passes
+            while (!aborted.get()) {
+                LockSupport.parkNanos( 1000000 );
+            }
+            throw new IOException( "Request aborted" );
+        } );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try (FanOutExecutor fanOut = new FanOutExecutor( executor, 0, 200 )) {
+            // single tasks are executed in the calling thread
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            tasks.add( cancelledCall );
+            tasks.add( () -> "B" );
+            Thread call = new Thread( () -> fanOut.invokeAll( tasks ) );
+            call.start();
+            loading.await();
+
+            // waits for the cancelled load, then loads itself
+            assertThat( cache.get( key( "a" ), () -> "A" ), equalTo( "A" ) );
+            assertThat( cache.getStats().getCoalescedCount(), is( 1L ) );
+            call.join();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import java.util.List;
+import java.util.ResourceBundle;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+import de.ingrid.external.gemet.GEMETClient.ConceptType;
+import de.ingrid.external.gemet.GEMETClient.MatchingConceptsSearchMode;
+
+/**
+ * Tests the client against a local stub transport, no GEMET service needed.
+ */
+public class GEMETClientTest {
+
+    static final String SERVICE = "http://www.eionet.europa.eu/gemet/";
+
+    static final String GROUP = "http://www.eionet.europa.eu/gemet/group/14980";
+    static final String THEMA = "http://www.eionet.europa.eu/gemet/concept/14848";
+    static final String OFF_SITE = "http://www.eionet.europa.eu/gemet/concept/5825";
+
+    private StubGEMETTransport transport;
+
+    private GEMETClient client;
+
+    @BeforeEach
+    void setUp() {
+        transport = new StubGEMETTransport();
+        client = new GEMETClient( ResourceBundle.getBundle( "gemet" ), transport );
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+    }
+
+    static String concept(String uri, String name) {
+        String thesaurus = uri.substring( 0, uri.lastIndexOf( '/' ) + 1 );
+        return "{\"uri\":\"" + uri + "\",\"thesaurus\":\"" + thesaurus + "\",\"preferredLabel\":{\"string\":\"" + name + "\",\"language\":\"de\"}}";
+    }
+
+    static String relative(String source, ConceptRelation relation, String target) {
+        return "{\"source\":\"" + source + "\",\"relation\":\"" + relation + "\",\"target\":\"" + target + "\"}";
+    }
+
+    static String getConceptUrl(String uri) {
+        return SERVICE + "getConcept?concept_uri=" + uri + "&language=de";
+    }
+
+    static String getAllConceptRelativesUrl(String uri, ConceptRelation relation) {
+        return SERVICE + "getAllConceptRelatives?concept_uri=" + uri + "&relation_uri=" + HTMLUtils.encodeForURL( relation.toString() ) + "&language=de";
+    }
+
+    @Test
+    void getConceptAsJSON() throws Exception {
+        transport.respond( getConceptUrl( THEMA ), concept( THEMA, "Thema" ) );
+
+        JSONObject concept = client.getConceptAsJSON( THEMA, "de" );
+        assertThat( JSONUtils.getId( concept ), equalTo( THEMA ) );
+        assertThat( JSONUtils.getName( concept ), equalTo( "Thema" ) );
+
+        // async variant delivers same result, now from cache
+        concept = client.getConceptAsJSONAsync( THEMA, "de" ).get();
+        assertThat( JSONUtils.getName( concept ), equalTo( "Thema" ) );
+        assertThat( transport.getRequestCount(), is( 1 ) );
+        assertThat( client.getCacheStats().getHitCount(), is( 1L ) );
+
+        // problems are logged, null is returned
+        assertThat( client.getConceptAsJSON( OFF_SITE, "de" ), is( nullValue() ) );
+        assertThat( client.getConceptAsJSONAsync( OFF_SITE, "de" ).get(), is( nullValue() ) );
+    }
+
+    @Test
+    void getConceptsMatchingKeyword() throws Exception {
+        String url = SERVICE + "getConceptsMatchingKeyword?keyword=Thema&search_mode=" + MatchingConceptsSearchMode.EXACT + "&thesaurus_uri=" + ConceptType.CONCEPT
+                + "&language=de";
+        transport.respond( url, "[" + concept( THEMA, "Thema" ) + "]" );
+
+        JSONArray concepts = client.getConceptsMatchingKeywordAsync( "Thema", "de", MatchingConceptsSearchMode.EXACT ).get();
+        assertThat( concepts.size(), is( 1 ) );
+        assertThat( JSONUtils.getId( (JSONObject) concepts.get( 0 ) ), equalTo( THEMA ) );
+        assertThat( transport.getRequestedUrls(), contains( url ) );
+    }
+
+    @Test
+    void getChildConceptsOfGroup() throws Exception {
+        // group has two members, but only THEMA has no broader concept
+        transport.respond( getAllConceptRelativesUrl( GROUP, ConceptRelation.GROUP_MEMBER ),
+                "[" + relative( GROUP, ConceptRelation.GROUP_MEMBER, THEMA ) + "," + relative( GROUP, ConceptRelation.GROUP_MEMBER, OFF_SITE ) + "]" );
+        transport.respond( getAllConceptRelativesUrl( THEMA, ConceptRelation.BROADER ), "[]" );
+        transport.respond( getAllConceptRelativesUrl( OFF_SITE, ConceptRelation.BROADER ), "[" + relative( OFF_SITE, ConceptRelation.BROADER, THEMA ) + "]" );
+        transport.respond( getConceptUrl( THEMA ), concept( THEMA, "Thema" ) );
+
+        List<JSONArray> children = client.getChildConcepts( GROUP, "de" );
+        assertThat( children.size(), is( 1 ) );
+        assertThat( children.get( 0 ).size(), is( 1 ) );
+        assertThat( JSONUtils.getId( (JSONObject) children.get( 0 ).get( 0 ) ), equalTo( THEMA ) );
+
+        JSONArray relatives = client.getAllConceptRelativesAsync( GROUP, ConceptRelation.GROUP_MEMBER, "de" ).get();
+        assertThat( relatives.size(), is( 2 ) );
+    }
+}
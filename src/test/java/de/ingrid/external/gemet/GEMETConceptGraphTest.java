@@ -0,0 +1,317 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ResourceBundle;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+import de.ingrid.external.gemet.GEMETClient.ConceptType;
+import de.ingrid.external.om.TreeTerm;
+
+public class GEMETConceptGraphTest {
+
+    static final String SERVICE = GEMETClientTest.SERVICE;
+
+    static final String SUPER_GROUP = "http://www.eionet.europa.eu/gemet/supergroup/5306";
+    static final String GROUP = GEMETClientTest.GROUP;
+    static final String THEMA = GEMETClientTest.THEMA;
+    static final String OFF_SITE = GEMETClientTest.OFF_SITE;
+    static final String IN_SITU = "http://www.eionet.europa.eu/gemet/concept/4359";
+    static final String UNKNOWN = "http://www.eionet.europa.eu/gemet/concept/99999";
+
+    private StubGEMETTransport transport;
+
+    private GEMETClient client;
+
+    @BeforeEach
+    void setUp() {
+        transport = new StubGEMETTransport();
+        client = new GEMETClient( ResourceBundle.getBundle( "gemet" ), transport );
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+    }
+
+    static GEMETConceptGraph buildGraph() {
+        GEMETConceptGraph.Builder builder = new GEMETConceptGraph.Builder();
+        builder.addRelation( GROUP, ConceptRelation.BROADER, SUPER_GROUP );
+        builder.addRelation( GROUP, ConceptRelation.GROUP_MEMBER, THEMA );
+        builder.addRelation( GROUP, ConceptRelation.GROUP_MEMBER, OFF_SITE );
+        builder.addRelation( THEMA, ConceptRelation.NARROWER, OFF_SITE );
+        // duplicate via inverse relation is ignored
+        builder.addRelation( OFF_SITE, ConceptRelation.BROADER, THEMA );
+        return builder.build();
+    }
+
+    void respondHierarchy() {
+        transport.respond( SERVICE + "getTopmostConcepts?thesaurus_uri=" + ConceptType.SOUPERGROUP + "&language=de",
+                "[" + GEMETClientTest.concept( SUPER_GROUP, "ZUSATZVERZEICHNISSE" ) + "]" );
+        transport.respond( GEMETClientTest.getAllConceptRelativesUrl( SUPER_GROUP, ConceptRelation.NARROWER ),
+                "[" + GEMETClientTest.relative( SUPER_GROUP, ConceptRelation.NARROWER, GROUP ) + "]" );
+        transport.respond( GEMETClientTest.getAllConceptRelativesUrl( GROUP, ConceptRelation.GROUP_MEMBER ),
+                "[" + GEMETClientTest.relative( GROUP, ConceptRelation.GROUP_MEMBER, THEMA ) + ","
+                        + GEMETClientTest.relative( GROUP, ConceptRelation.GROUP_MEMBER, OFF_SITE ) + "]" );
+        transport.respond( GEMETClientTest.getAllConceptRelativesUrl( THEMA, ConceptRelation.NARROWER ),
+                "[" + GEMETClientTest.relative( THEMA, ConceptRelation.NARROWER, OFF_SITE ) + "]" );
+        transport.respond( GEMETClientTest.getAllConceptRelativesUrl( OFF_SITE, ConceptRelation.NARROWER ), "[]" );
+    }
+
+    @Test
+    void walksHierarchy() {
+        GEMETConceptGraph graph = buildGraph();
+        int superGroup = graph.getId( SUPER_GROUP );
+        int group = graph.getId( GROUP );
+        int thema = graph.getId( THEMA );
+        int offSite = graph.getId( OFF_SITE );
+
+        assertThat( graph.size(), is( 4 ) );
+        assertThat( graph.getId( IN_SITU ), is( -1 ) );
+        assertThat( graph.getType( group ), is( ConceptType.GROUP ) );
+
+        // inverse relations
+        assertThat( graph.getRelated( superGroup, ConceptRelation.NARROWER ), equalTo( new int[] { group } ) );
+        assertThat( graph.getRelated( thema, ConceptRelation.GROUP ), equalTo( new int[] { group } ) );
+        assertThat( graph.getRelated( thema, ConceptRelation.NARROWER ), equalTo( new int[] { offSite } ) );
+
+        // only group members without broader concept are children of group
+        assertThat( graph.getChildren( group ), equalTo( new int[] { thema } ) );
+        assertThat( graph.hasChildren( thema ), is( true ) );
+        assertThat( graph.hasChildren( offSite ), is( false ) );
+        assertThat( graph.hasBroader( offSite ), is( true ) );
+
+        assertThat( graph.getPathToTop( offSite ), equalTo( new int[] { offSite, thema, group, superGroup } ) );
+        assertThat( graph.getFirstParent( superGroup ), is( -1 ) );
+    }
+
+    @Test
+    void stopsOnCircularRelations() {
+        GEMETConceptGraph.Builder builder = new GEMETConceptGraph.Builder();
+        builder.addRelation( THEMA, ConceptRelation.BROADER, OFF_SITE );
+        builder.addRelation( OFF_SITE, ConceptRelation.BROADER, THEMA );
+        GEMETConceptGraph graph = builder.build();
+
+        assertThat( graph.getPathToTop( graph.getId( THEMA ) ).length, is( 2 ) );
+    }
+
+    @Test
+    void refreshKeepsOriginalGraph() {
+        GEMETConceptGraph graph = buildGraph();
+
+        GEMETConceptGraph.Builder builder = new GEMETConceptGraph.Builder( graph );
+        builder.setRelations( OFF_SITE, ConceptRelation.BROADER, Collections.singletonList( IN_SITU ) );
+        GEMETConceptGraph refreshed = builder.build();
+
+        int offSite = refreshed.getId( OFF_SITE );
+        int inSitu = refreshed.getId( IN_SITU );
+        assertThat( refreshed.getParents( offSite ), equalTo( new int[] { inSitu } ) );
+        assertThat( refreshed.getRelated( inSitu, ConceptRelation.NARROWER ), equalTo( new int[] { offSite } ) );
+        // inverse relation of old parent removed
+        assertThat( refreshed.hasChildren( refreshed.getId( THEMA ) ), is( false ) );
+
+        // original graph unchanged
+        assertThat( graph.getId( IN_SITU ), is( -1 ) );
+        assertThat( graph.getParents( graph.getId( OFF_SITE ) ), equalTo( new int[] { graph.getId( THEMA ) } ) );
+    }
+
+    @Test
+    void keepsIncompleteNodesWhenWritten() throws IOException {
+        GEMETConceptGraph.Builder builder = new GEMETConceptGraph.Builder( buildGraph() );
+        builder.setComplete( IN_SITU, false );
+        GEMETConceptGraph graph = builder.build();
+        assertThat( graph.isComplete( graph.getId( IN_SITU ) ), is( false ) );
+        assertThat( graph.isComplete( graph.getId( THEMA ) ), is( true ) );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        graph.write( new DataOutputStream( bytes ) );
+        GEMETConceptGraph read = GEMETConceptGraph.read( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+        assertThat( read.size(), is( 5 ) );
+        assertThat( read.isComplete( read.getId( IN_SITU ) ), is( false ) );
+        assertThat( read.isComplete( read.getId( THEMA ) ), is( true ) );
+    }
+
+    @Test
+    void loaderCrawlsHierarchy() {
+        respondHierarchy();
+
+        GEMETConceptGraph graph = new GEMETConceptGraphLoader( client, "de" ).load();
+        assertThat( graph.size(), is( 4 ) );
+        assertThat( transport.getRequestCount(), is( 5 ) );
+
+        int offSite = graph.getId( OFF_SITE );
+        assertThat( Arrays.stream( graph.getPathToTop( offSite ) ).mapToObj( graph::getUri ).toArray(),
+                equalTo( new Object[] { OFF_SITE, THEMA, GROUP, SUPER_GROUP } ) );
+    }
+
+    @Test
+    void loaderRepeatsFailedRequests() throws Exception {
+        String narrowerUrl = GEMETClientTest.getAllConceptRelativesUrl( THEMA, ConceptRelation.NARROWER );
+        StubGEMETTransport failingOnce = new StubGEMETTransport() {
+            @Override
+            public <T> T get(String url, String accept, ResponseReader<T> reader) throws Exception {
+                if (url.equals( narrowerUrl ) && getRequestedUrls().indexOf( url ) < 0) {
+                    getRequestedUrls().add( url );
+                    throw new IOException( "HTTP status 503 from " + url );
+                }
+                return super.get( url, accept, reader );
+            }
+        };
+        client.close();
+        transport = failingOnce;
+        client = new GEMETClient( ResourceBundle.getBundle( "gemet" ), transport );
+        respondHierarchy();
+
+        GEMETConceptGraphLoader loader = new GEMETConceptGraphLoader( client, "de" );
+        loader.retryDelayMillis = 0;
+        GEMETConceptGraph graph = loader.load();
+        assertThat( graph.size(), is( 4 ) );
+        assertThat( transport.getRequestCount(), is( 6 ) );
+        assertThat( graph.getChildren( graph.getId( THEMA ) ), equalTo( new int[] { graph.getId( OFF_SITE ) } ) );
+    }
+
+    @Test
+    void loaderFailsInsteadOfMissingSubtree() {
+        respondHierarchy();
+        // unparsable response
+        transport.respond( GEMETClientTest.getAllConceptRelativesUrl( THEMA, ConceptRelation.NARROWER ), "<html>" );
+
+        GEMETConceptGraphLoader loader = new GEMETConceptGraphLoader( client, "de" );
+        loader.retryDelayMillis = 0;
+        assertThrows( IllegalStateException.class, loader::load );
+        assertThat( transport.getRequestCount(), is( 4 + GEMETConceptGraphLoader.MAX_ATTEMPTS ) );
+    }
+
+    @Test
+    void refreshAddsOnlyConfirmedNodes() throws Exception {
+        respondHierarchy();
+        GEMETService service = new GEMETService();
+        service.gemetClient = client;
+        service.gemetMapper = new GEMETMapper();
+        service.conceptGraphLoader = new GEMETConceptGraphLoader( client, "de" );
+        service.conceptGraph = service.conceptGraphLoader.load();
+
+        // unknown in GEMET, not added and not requested again
+        GEMETConceptGraph graph = service.refreshConceptGraph( UNKNOWN );
+        assertThat( graph.getId( UNKNOWN ), is( -1 ) );
+        int requestCount = transport.getRequestCount();
+        assertThat( service.refreshConceptGraph( UNKNOWN ), is( graph ) );
+        assertThat( transport.getRequestCount(), is( requestCount ) );
+
+        // new concept below THEMA, related to a concept not in graph yet
+        for (ConceptRelation relation : ConceptRelation.values()) {
+            transport.respond( GEMETClientTest.getAllConceptRelativesUrl( IN_SITU, relation ), "[]" );
+        }
+        transport.respond( GEMETClientTest.getAllConceptRelativesUrl( IN_SITU, ConceptRelation.BROADER ),
+                "[" + GEMETClientTest.relative( IN_SITU, ConceptRelation.BROADER, THEMA ) + "]" );
+        transport.respond( GEMETClientTest.getAllConceptRelativesUrl( IN_SITU, ConceptRelation.RELATED ),
+                "[" + GEMETClientTest.relative( IN_SITU, ConceptRelation.RELATED, UNKNOWN ) + "]" );
+
+        graph = service.refreshConceptGraph( IN_SITU );
+        int inSitu = graph.getId( IN_SITU );
+        assertThat( graph.isComplete( inSitu ), is( true ) );
+        assertThat( graph.getParents( inSitu ), equalTo( new int[] { graph.getId( THEMA ) } ) );
+        assertThat( graph.getChildren( graph.getId( THEMA ) ), equalTo( new int[] { graph.getId( OFF_SITE ), inSitu } ) );
+        // relations of related concept are not known
+        assertThat( graph.isComplete( graph.getId( UNKNOWN ) ), is( false ) );
+    }
+
+    @Test
+    void serviceRefreshesUnknownNodeInBackground() throws Exception {
+        respondHierarchy();
+        for (ConceptRelation relation : ConceptRelation.values()) {
+            transport.respond( GEMETClientTest.getAllConceptRelativesUrl( IN_SITU, relation ), "[]" );
+        }
+        transport.respond( GEMETClientTest.getAllConceptRelativesUrl( IN_SITU, ConceptRelation.BROADER ),
+                "[" + GEMETClientTest.relative( IN_SITU, ConceptRelation.BROADER, THEMA ) + "]" );
+        transport.respond( GEMETClientTest.getConceptUrl( IN_SITU ), GEMETClientTest.concept( IN_SITU, "In-situ" ) );
+
+        GEMETService service = new GEMETService();
+        service.gemetClient = client;
+        service.gemetMapper = new GEMETMapper();
+        service.conceptGraphLoader = new GEMETConceptGraphLoader( client, "de" );
+        service.conceptGraph = service.conceptGraphLoader.load();
+
+        // answered via service, graph is refreshed afterwards
+        assertThat( service.getHierarchyNextLevel( IN_SITU, null ).length, is( 0 ) );
+        long timeout = System.currentTimeMillis() + 5000;
+        while (service.conceptGraph.getId( IN_SITU ) < 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep( 10 );
+        }
+        GEMETConceptGraph graph = service.conceptGraph;
+        assertThat( graph.isComplete( graph.getId( IN_SITU ) ), is( true ) );
+        assertThat( graph.getParents( graph.getId( IN_SITU ) ), equalTo( new int[] { graph.getId( THEMA ) } ) );
+        service.destroy();
+    }
+
+    @Test
+    void serviceUsesGraph() throws Exception {
+        respondHierarchy();
+        transport.respond( GEMETClientTest.getConceptUrl( SUPER_GROUP ), GEMETClientTest.concept( SUPER_GROUP, "ZUSATZVERZEICHNISSE" ) );
+        transport.respond( GEMETClientTest.getConceptUrl( GROUP ), GEMETClientTest.concept( GROUP, "HILFSBEGRIFFE" ) );
+        transport.respond( GEMETClientTest.getConceptUrl( THEMA ), GEMETClientTest.concept( THEMA, "Thema" ) );
+        transport.respond( GEMETClientTest.getConceptUrl( OFF_SITE ), GEMETClientTest.concept( OFF_SITE, "Off-Site" ) );
+
+        GEMETService service = new GEMETService();
+        service.gemetClient = client;
+        service.gemetMapper = new GEMETMapper();
+        service.conceptGraphLoader = new GEMETConceptGraphLoader( client, "de" );
+        service.conceptGraph = service.conceptGraphLoader.load();
+        int crawlRequests = transport.getRequestCount();
+
+        TreeTerm pathToTop = service.getHierarchyPathToTop( OFF_SITE, null );
+        assertThat( pathToTop.getName(), is( "Off-Site" ) );
+        TreeTerm parent = pathToTop.getParents().get( 0 );
+        assertThat( parent.getName(), is( "Thema" ) );
+        parent = parent.getParents().get( 0 );
+        assertThat( parent.getName(), is( "HILFSBEGRIFFE" ) );
+        parent = parent.getParents().get( 0 );
+        assertThat( parent.getName(), is( "ZUSATZVERZEICHNISSE" ) );
+        // only the concepts themselves are fetched
+        assertThat( transport.getRequestCount(), is( crawlRequests + 4 ) );
+
+        TreeTerm[] nextLevel = service.getHierarchyNextLevel( GROUP, null );
+        assertThat( nextLevel.length, is( 1 ) );
+        assertThat( nextLevel[0].getName(), is( "Thema" ) );
+        assertThat( nextLevel[0].getChildren().size(), is( 1 ) );
+        assertThat( nextLevel[0].getChildren().get( 0 ).getName(), is( "Off-Site" ) );
+        // all from cache
+        assertThat( transport.getRequestCount(), is( crawlRequests + 4 ) );
+    }
+}
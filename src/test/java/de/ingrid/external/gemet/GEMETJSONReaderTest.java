@@ -0,0 +1,94 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.jupiter.api.Test;
+
+import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+
+public class GEMETJSONReaderTest {
+
+    static final String THEMA = GEMETClientTest.THEMA;
+
+    static Object read(String json) throws IOException {
+        return GEMETJSONReader.read( new ByteArrayInputStream( json.getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+
+    @Test
+    void keepsOnlyMappedFields() throws Exception {
+        String json = "{ \"uri\": \"" + THEMA + "\", \"definition\": {\"string\": \"skipped \\\" text\", \"language\": \"de\"},"
+                + " \"preferredLabel\": {\"string\": \"Th\\u00e9ma \\\"1\\\"\\n\", \"language\": \"de\"}, \"thesaurus\": \"http://www.eionet.europa.eu/gemet/concept/\","
+                + " \"number\": -1.5e3, \"list\": [1, true, null, {\"uri\": \"nested\"}], \"flag\": false }";
+
+        JSONObject concept = (JSONObject) read( json );
+        assertThat( concept.size(), is( 3 ) );
+        assertThat( JSONUtils.getId( concept ), equalTo( THEMA ) );
+        assertThat( JSONUtils.getName( concept ), equalTo( "Th\u00e9ma \"1\"\n" ) );
+        assertThat( ((JSONObject) concept.get( "preferredLabel" )).get( "language" ), equalTo( "de" ) );
+        assertThat( JSONUtils.getType( concept ), equalTo( "http://www.eionet.europa.eu/gemet/concept/" ) );
+    }
+
+    @Test
+    void readsLargeArraysLikeJSONParser() throws Exception {
+        // larger than read buffer
+        StringBuilder json = new StringBuilder( "[" );
+        for (int i = 0; i < 1000; i++) {
+            if (i > 0) {
+                json.append( ",\n " );
+            }
+            json.append( GEMETClientTest.relative( THEMA, ConceptRelation.NARROWER, "http://www.eionet.europa.eu/gemet/concept/" + i ) );
+        }
+        json.append( "]" );
+
+        JSONArray relatives = (JSONArray) read( json.toString() );
+        assertThat( relatives, equalTo( new JSONParser().parse( json.toString() ) ) );
+        assertThat( JSONUtils.getTarget( (JSONObject) relatives.get( 999 ) ), equalTo( "http://www.eionet.europa.eu/gemet/concept/999" ) );
+
+        assertThat( ((JSONArray) GEMETJSONReader.read( new StringReader( " [ ] " ) )).size(), is( 0 ) );
+        assertThat( GEMETJSONReader.read( new StringReader( "null" ) ), is( nullValue() ) );
+        assertThat( GEMETJSONReader.read( new StringReader( "42" ) ), equalTo( 42L ) );
+    }
+
+    @Test
+    void failsOnInvalidJSON() {
+        assertThrows( IOException.class, () -> read( "[" ) );
+        assertThrows( IOException.class, () -> read( "{\"uri\" \"x\"}" ) );
+        assertThrows( IOException.class, () -> read( "[1, 2] 3" ) );
+        assertThrows( IOException.class, () -> read( "<html>Service Unavailable</html>" ) );
+        assertThrows( IOException.class, () -> read( "\"open" ) );
+    }
+}
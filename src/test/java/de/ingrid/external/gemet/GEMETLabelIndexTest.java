@@ -0,0 +1,84 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+import de.ingrid.external.gemet.GEMETClient.MatchingConceptsSearchMode;
+
+public class GEMETLabelIndexTest {
+
+    // labels by concept id, id 3 is no concept
+    static final String[][] LABELS = new String[][] {
+            { "Wasser", "H2O" },
+            { "Wasserschutz" },
+            { "Abwasser", "Schmutzwasser" },
+            null,
+            { "Ärger mit Wasser" } };
+
+    final GEMETLabelIndex index = new GEMETLabelIndex( LABELS, Locale.GERMAN );
+
+    @Test
+    void findsAllSearchModes() {
+        assertThat( index.size(), is( 6 ) );
+
+        assertThat( index.find( "wasser", MatchingConceptsSearchMode.EXACT ), equalTo( new int[] { 0 } ) );
+        assertThat( index.find( "h2o", MatchingConceptsSearchMode.EXACT ), equalTo( new int[] { 0 } ) );
+        assertThat( index.find( "WASSER", MatchingConceptsSearchMode.BEGINS_WITH ), equalTo( new int[] { 0, 1 } ) );
+        // both labels of concept 2 match, delivered once
+        assertThat( index.find( "wasser", MatchingConceptsSearchMode.ENDS_WITH ), equalTo( new int[] { 0, 4, 2 } ) );
+        assertThat( index.find( "Wasser", MatchingConceptsSearchMode.CONTAINS ).length, is( 4 ) );
+        assertThat( index.find( "serschu", MatchingConceptsSearchMode.CONTAINS ), equalTo( new int[] { 1 } ) );
+        assertThat( index.find( "xyz", MatchingConceptsSearchMode.CONTAINS ).length, is( 0 ) );
+        assertThat( index.find( " ", MatchingConceptsSearchMode.CONTAINS ).length, is( 0 ) );
+    }
+
+    @Test
+    void checkAllUsesFirstSearchModeFindingConcepts() {
+        // exact match only, not the labels beginning with it
+        assertThat( index.find( "Wasser", MatchingConceptsSearchMode.CHECK_ALL ), equalTo( new int[] { 0 } ) );
+        assertThat( index.find( "wasserschu", MatchingConceptsSearchMode.CHECK_ALL ), equalTo( new int[] { 1 } ) );
+        assertThat( index.find( "mutzwasser", MatchingConceptsSearchMode.CHECK_ALL ), equalTo( new int[] { 2 } ) );
+        assertThat( index.find( "serschu", MatchingConceptsSearchMode.CHECK_ALL ), equalTo( new int[] { 1 } ) );
+        assertThat( index.find( "xyz", MatchingConceptsSearchMode.CHECK_ALL ).length, is( 0 ) );
+    }
+
+    @Test
+    void shortQueriesWithoutTrigrams() {
+        assertThat( index.find( "2", MatchingConceptsSearchMode.CONTAINS ), equalTo( new int[] { 0 } ) );
+        assertThat( index.find( "ab", MatchingConceptsSearchMode.BEGINS_WITH ), equalTo( new int[] { 2 } ) );
+    }
+
+    @Test
+    void foldsCaseAndUnicode() {
+        // decomposed umlaut matches composed label
+        assertThat( index.find( "A\u0308RGER", MatchingConceptsSearchMode.BEGINS_WITH ), equalTo( new int[] { 4 } ) );
+        assertThat( index.find( "ärger mit wasser", MatchingConceptsSearchMode.EXACT ), equalTo( new int[] { 4 } ) );
+    }
+}
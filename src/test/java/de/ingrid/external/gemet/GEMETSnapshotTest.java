@@ -0,0 +1,180 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.PropertyResourceBundle;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.ingrid.external.ThesaurusService.MatchingType;
+import de.ingrid.external.gemet.GEMETClient.ConceptRelation;
+import de.ingrid.external.gemet.GEMETClient.MatchingConceptsSearchMode;
+import de.ingrid.external.om.RelatedTerm;
+import de.ingrid.external.om.Term;
+import de.ingrid.external.om.Term.TermType;
+import de.ingrid.external.om.TreeTerm;
+
+public class GEMETSnapshotTest {
+
+    static final String GEMET = "http://www.eionet.europa.eu/gemet/";
+
+    @TempDir
+    Path directory;
+
+    static Path rdfFile() throws Exception {
+        return Paths.get( GEMETSnapshotTest.class.getResource( "/gemet-snapshot.rdf" ).toURI() );
+    }
+
+    GEMETService createService(Path snapshotFile) throws Exception {
+        String props = "service.request.rdf=false\n" +
+                "service.analyzeMaxWords=100\n" +
+                "service.ignorePassedMatchingType=false\n" +
+                "service.alternateLanguage=fr\n" +
+                "service.backend=snapshot\n" +
+                "service.snapshot.file=" + snapshotFile.toString().replace( '\\', '/' ) + "\n" +
+                "service.snapshot.rdf=" + rdfFile().toString().replace( '\\', '/' ) + "\n";
+        GEMETService service = new GEMETService();
+        service.init( new PropertyResourceBundle( new StringReader( props ) ) );
+        return service;
+    }
+
+    @Test
+    void importsRdfWithInverseRelations() throws Exception {
+        GEMETSnapshot snapshot = GEMETSnapshot.importRdf( Collections.singletonList( rdfFile() ), null );
+
+        // theme is not part of the hierarchy
+        assertThat( snapshot.getId( GEMET + "theme/1" ), is( -1 ) );
+
+        int superGroup = snapshot.getId( GEMET + "supergroup/5306" );
+        assertThat( snapshot.getType( superGroup ), is( GEMETClient.ConceptType.SOUPERGROUP ) );
+        assertThat( snapshot.getName( superGroup, "de" ), is( "ZUSATZVERZEICHNISSE" ) );
+        // narrower of supergroup only given as broader of group
+        assertThat( snapshot.getChildren( superGroup ).length, is( 2 ) );
+
+        // only group members without broader concept are children of group
+        int group = snapshot.getId( GEMET + "group/14980" );
+        int thema = snapshot.getId( GEMET + "concept/14848" );
+        assertThat( Arrays.equals( snapshot.getChildren( group ), new int[] { thema } ), is( true ) );
+
+        int offSite = snapshot.getId( GEMET + "concept/5825" );
+        assertThat( Arrays.equals( snapshot.getParents( offSite ), new int[] { thema } ), is( true ) );
+        assertThat( snapshot.getChildren( thema ).length, is( 2 ) );
+
+        // group relation also derived from groupMember
+        assertThat( snapshot.hasRelation( offSite, ConceptRelation.GROUP ), is( true ) );
+        int wasser = snapshot.getId( GEMET + "concept/9242" );
+        int wasserschutz = snapshot.getId( GEMET + "concept/9243" );
+        assertThat( Arrays.equals( snapshot.getRelated( wasserschutz, ConceptRelation.RELATED ), new int[] { wasser } ), is( true ) );
+    }
+
+    @Test
+    void savedSnapshotLoadsEqual() throws Exception {
+        GEMETSnapshot snapshot = GEMETSnapshot.importRdf( Collections.singletonList( rdfFile() ), Collections.singleton( "de" ) );
+        Path file = directory.resolve( "gemet.snapshot" );
+        snapshot.save( file );
+        GEMETSnapshot loaded = GEMETSnapshot.load( file );
+
+        assertThat( loaded.size(), is( snapshot.size() ) );
+        assertThat( Arrays.asList( loaded.getLanguages() ), equalTo( Arrays.asList( "de" ) ) );
+        int wasser = loaded.getId( GEMET + "concept/9242" );
+        assertThat( wasser, is( snapshot.getId( GEMET + "concept/9242" ) ) );
+        assertThat( loaded.getName( wasser, "en" ), is( "Wasser" ) );
+        assertThat( Arrays.asList( loaded.getAltLabels( wasser, "de" ) ), equalTo( Arrays.asList( "H2O" ) ) );
+        for (int id = 0; id < snapshot.size(); id++) {
+            assertThat( loaded.getUri( id ), is( snapshot.getUri( id ) ) );
+            assertThat( Arrays.equals( loaded.getChildren( id ), snapshot.getChildren( id ) ), is( true ) );
+            assertThat( Arrays.equals( loaded.getParents( id ), snapshot.getParents( id ) ), is( true ) );
+        }
+        assertThat( loaded.findConcepts( "wasser", "de", MatchingConceptsSearchMode.BEGINS_WITH ).length, is( 2 ) );
+    }
+
+    @Test
+    void serviceAnswersFromSnapshot() throws Exception {
+        Path snapshotFile = directory.resolve( "gemet.snapshot" );
+        GEMETService service = createService( snapshotFile );
+        assertThat( Files.exists( snapshotFile ), is( true ) );
+
+        Term term = service.getTerm( GEMET + "concept/9242", Locale.GERMAN );
+        assertThat( term.getName(), is( "Wasser" ) );
+        assertThat( term.getAlternateName(), is( "eau (substance)" ) );
+        assertThat( term.getType(), is( TermType.DESCRIPTOR ) );
+
+        Term[] terms = service.findTermsFromQueryTerm( "Wasser", MatchingType.BEGINS_WITH, true, Locale.GERMAN );
+        assertThat( terms.length, is( 2 ) );
+        // alternate labels are found, too
+        terms = service.findTermsFromQueryTerm( "h2o", MatchingType.EXACT, true, Locale.GERMAN );
+        assertThat( terms.length, is( 1 ) );
+        assertThat( terms[0].getName(), is( "Wasser" ) );
+        terms = service.findTermsFromQueryTerm( "Wasser Schutz", MatchingType.CONTAINS, true, Locale.GERMAN );
+        assertThat( terms.length, is( 1 ) );
+        assertThat( terms[0].getName(), is( "Wasserschutz" ) );
+
+        TreeTerm[] topTerms = service.getHierarchyNextLevel( null, Locale.GERMAN );
+        assertThat( topTerms.length, is( 2 ) );
+
+        TreeTerm[] nextLevel = service.getHierarchyNextLevel( GEMET + "group/14980", Locale.GERMAN );
+        assertThat( nextLevel.length, is( 1 ) );
+        assertThat( nextLevel[0].getName(), is( "Thema" ) );
+        assertThat( nextLevel[0].getChildren().size(), is( 2 ) );
+
+        TreeTerm pathToTop = service.getHierarchyPathToTop( GEMET + "concept/5825", Locale.GERMAN );
+        assertThat( pathToTop.getName(), is( "Off-Site" ) );
+        TreeTerm parent = pathToTop.getParents().get( 0 );
+        assertThat( parent.getName(), is( "Thema" ) );
+        parent = parent.getParents().get( 0 );
+        assertThat( parent.getName(), is( "HILFSBEGRIFFE" ) );
+        parent = parent.getParents().get( 0 );
+        assertThat( parent.getName(), is( "ZUSATZVERZEICHNISSE" ) );
+        assertThat( parent.getParents() == null || parent.getParents().isEmpty(), is( true ) );
+
+        RelatedTerm[] relatedTerms = service.getRelatedTermsFromTerm( GEMET + "concept/9242", Locale.GERMAN );
+        assertThat( relatedTerms.length, is( 1 ) );
+        assertThat( relatedTerms[0].getName(), is( "Wasserschutz" ) );
+
+        terms = service.getTermsFromText( "Das Waldsterben und die Luftverschmutzung", 100, true, Locale.GERMAN );
+        assertThat( terms.length, is( 2 ) );
+        // terms of several words, no maximum of words
+        terms = service.getTermsFromText( "Forest dieback, caused by air pollution.", 1, true, Locale.ENGLISH );
+        assertThat( terms.length, is( 2 ) );
+        assertThat( terms[0].getName(), is( "forest dieback" ) );
+
+        service.destroy();
+
+        // second start loads written snapshot file
+        service = createService( snapshotFile );
+        assertThat( service.getTerm( GEMET + "concept/14848", Locale.GERMAN ).getName(), is( "Thema" ) );
+        service.destroy();
+    }
+}
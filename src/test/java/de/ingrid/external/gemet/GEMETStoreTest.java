@@ -0,0 +1,237 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GEMETStoreTest {
+
+    static final String THEMA = "http://www.eionet.europa.eu/gemet/concept/14848";
+
+    static final GEMETRequestKey KEY = new GEMETRequestKey( "getConcept", THEMA, null, "de" );
+
+    @TempDir
+    Path directory;
+
+    static Object concept(String name) throws Exception {
+        return new JSONParser().parse( GEMETClientTest.concept( THEMA, name ) );
+    }
+
+    @Test
+    void startsWarmAfterRestart() throws Exception {
+        try (GEMETStore store = new GEMETStore( directory, 60000, false )) {
+            store.get( KEY, () -> concept( "Thema\twith\ntabs" ) );
+            store.put( new GEMETRequestKey( "getConceptsMatchingKeyword", "Wasser Schutz", "3", "de" ), new JSONArray() );
+        }
+
+        try (GEMETStore store = new GEMETStore( directory, 60000, false )) {
+            assertThat( store.size(), is( 2 ) );
+            JSONObject concept = (JSONObject) store.get( KEY, () -> {
+                throw new IOException( "service must not be requested" );
+            } );
+            assertThat( JSONUtils.getName( concept ), equalTo( "Thema\twith\ntabs" ) );
+        }
+    }
+
+    @Test
+    void deliversStaleResponseWhenServiceIsDown() throws Exception {
+        AtomicInteger requestCount = new AtomicInteger();
+        try (GEMETStore store = new GEMETStore( directory, 0, false )) {
+            store.put( KEY, concept( "Thema" ) );
+            Thread.sleep( 5 );
+
+            JSONObject concept = (JSONObject) store.get( KEY, () -> {
+                requestCount.incrementAndGet();
+                throw new IOException( "service down" );
+            } );
+            assertThat( JSONUtils.getName( concept ), equalTo( "Thema" ) );
+
+            // refreshed in background
+            while (requestCount.get() == 0) {
+                Thread.sleep( 10 );
+            }
+        }
+    }
+
+    @Test
+    void offlineOnlyDeliversStoredResponses() throws Exception {
+        try (GEMETStore store = new GEMETStore( directory.resolve( "seed" ), 60000, false )) {
+            store.put( KEY, concept( "Thema" ) );
+        }
+
+        try (GEMETStore store = new GEMETStore( directory.resolve( "offline" ), 60000, true )) {
+            assertThat( store.importFile( directory.resolve( "seed" ).resolve( GEMETStore.LOG_FILE ) ), is( 1 ) );
+
+            JSONObject concept = (JSONObject) store.get( KEY, () -> concept( "requested" ) );
+            assertThat( JSONUtils.getName( concept ), equalTo( "Thema" ) );
+
+            assertThrows( FileNotFoundException.class, () -> store.get( new GEMETRequestKey( "getConcept", THEMA, null, "en" ), () -> concept( "requested" ) ) );
+        }
+    }
+
+    @Test
+    void ignoresIncompleteRecord() throws Exception {
+        try (GEMETStore store = new GEMETStore( directory, 60000, false )) {
+            store.put( KEY, concept( "Thema" ) );
+        }
+        // simulate crash while writing
+        Files.write( directory.resolve( GEMETStore.LOG_FILE ), "123\tjson\tgetConcept\t".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+
+        try (GEMETStore store = new GEMETStore( directory, 60000, false )) {
+            assertThat( store.size(), is( 1 ) );
+            store.put( new GEMETRequestKey( "getConcept", THEMA, null, "en" ), concept( "topic" ) );
+        }
+
+        try (GEMETStore store = new GEMETStore( directory, 60000, true )) {
+            assertThat( store.size(), is( 2 ) );
+        }
+    }
+
+    @Test
+    void skipsRecordWithInvalidTime() throws Exception {
+        try (GEMETStore store = new GEMETStore( directory, 60000, false )) {
+            store.put( KEY, concept( "Thema" ) );
+        }
+        // corrupted time field, e.g. after a crash
+        Files.write( directory.resolve( GEMETStore.LOG_FILE ), ("12x4\tjson\tgetConcept\t" + THEMA + "\t\ten\t{}\n").getBytes( StandardCharsets.UTF_8 ),
+                StandardOpenOption.APPEND );
+
+        try (GEMETStore store = new GEMETStore( directory, 60000, true )) {
+            assertThat( store.size(), is( 1 ) );
+            JSONObject concept = (JSONObject) store.get( KEY, () -> concept( "requested" ) );
+            assertThat( JSONUtils.getName( concept ), equalTo( "Thema" ) );
+        }
+    }
+
+    @Test
+    void keepsWorkingAfterInterrupt() throws Exception {
+        try (GEMETStore store = new GEMETStore( directory, 60000, false )) {
+            store.put( KEY, concept( "Thema" ) );
+
+            // e.g. fan out task cancelled on timeout, interrupt must not close
+            // the log file for all threads
+            Thread.currentThread().interrupt();
+            try {
+                store.get( KEY, () -> concept( "requested" ) );
+                store.put( new GEMETRequestKey( "getConcept", THEMA, null, "en" ), concept( "topic" ) );
+            } finally {
+                Thread.interrupted();
+            }
+
+            AtomicReference<Object> concept = new AtomicReference<Object>();
+            Thread thread = new Thread( () -> {
+                try {
+                    concept.set( store.get( new GEMETRequestKey( "getConcept", THEMA, null, "en" ), () -> concept( "requested" ) ) );
+                } catch (Exception e) {
+                    concept.set( e );
+                }
+            } );
+            thread.start();
+            thread.join();
+            assertThat( JSONUtils.getName( (JSONObject) concept.get() ), equalTo( "topic" ) );
+            assertThat( JSONUtils.getName( (JSONObject) store.get( KEY, () -> concept( "requested" ) ) ), equalTo( "Thema" ) );
+        }
+    }
+
+    @Test
+    void deliversResponseWhenStoringFails() throws Exception {
+        try (GEMETStore store = new GEMETStore( directory, 60000, false ) {
+            @Override
+            public void put(GEMETRequestKey key, Object value) throws IOException {
+                throw new IOException( "No space left on device" );
+            }
+        }) {
+            JSONObject concept = (JSONObject) store.get( KEY, () -> concept( "requested" ) );
+            assertThat( JSONUtils.getName( concept ), equalTo( "requested" ) );
+        }
+    }
+
+    @Test
+    void notifiesListenerAboutRefreshedResponse() throws Exception {
+        AtomicReference<Object> refreshed = new AtomicReference<Object>();
+        CountDownLatch notified = new CountDownLatch( 1 );
+        try (GEMETStore store = new GEMETStore( directory, 0, false )) {
+            store.setRevalidationListener( (key, value) -> {
+                refreshed.set( value );
+                notified.countDown();
+            } );
+            store.put( KEY, concept( "Thema" ) );
+            Thread.sleep( 5 );
+
+            JSONObject concept = (JSONObject) store.get( KEY, () -> concept( "Thema neu" ) );
+            assertThat( JSONUtils.getName( concept ), equalTo( "Thema" ) );
+
+            assertThat( notified.await( 5, TimeUnit.SECONDS ), is( true ) );
+            assertThat( JSONUtils.getName( (JSONObject) refreshed.get() ), equalTo( "Thema neu" ) );
+        }
+    }
+
+    @Test
+    void compactsWhenOutdatedResponsesDominate() throws Exception {
+        StringBuilder name = new StringBuilder();
+        while (name.length() < 200000) {
+            name.append( "Thema " );
+        }
+        try (GEMETStore store = new GEMETStore( directory, 60000, false )) {
+            for (int i = 0; i < 20; i++) {
+                store.put( KEY, concept( name.toString() + i ) );
+            }
+            // 20 responses written, at most the current one and the
+            // outdated ones since the last compaction are kept
+            assertThat( Files.size( directory.resolve( GEMETStore.LOG_FILE ) ), lessThan( 2 * GEMETStore.COMPACT_MIN_OUTDATED_BYTES ) );
+            JSONObject concept = (JSONObject) store.get( KEY, () -> concept( "requested" ) );
+            assertThat( JSONUtils.getName( concept ), equalTo( name.toString() + 19 ) );
+        }
+    }
+
+    @Test
+    void requestsServiceWhenClosed() throws Exception {
+        GEMETStore store = new GEMETStore( directory, 60000, false );
+        store.put( KEY, concept( "Thema" ) );
+        store.close();
+
+        JSONObject concept = (JSONObject) store.get( KEY, () -> concept( "requested" ) );
+        assertThat( JSONUtils.getName( concept ), equalTo( "requested" ) );
+    }
+}
@@ -0,0 +1,71 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+public class GEMETTextMatcherTest {
+
+    static final String[][] LABELS = new String[][] {
+            { "air" },
+            { "air pollution", "atmospheric pollution" },
+            { "pollution control" },
+            null,
+            { "in-situ" },
+            { "Wasser" } };
+
+    final GEMETTextMatcher matcher = new GEMETTextMatcher( LABELS, Locale.ENGLISH );
+
+    @Test
+    void tokenizesWithoutPunctuation() {
+        assertThat( TextUtils.tokenize( "Wasser, (Luft) und\tin-situ 2024!" ), contains( "Wasser", "Luft", "und", "in", "situ", "2024" ) );
+        // decomposed umlaut stays in word
+        assertThat( TextUtils.tokenize( "Ärger ist" ), contains( "Ärger", "ist" ) );
+        assertThat( TextUtils.tokenize( " ... " ).size(), is( 0 ) );
+    }
+
+    @Test
+    void findsLabelsOfSeveralWords() {
+        // overlapping labels are all found via failure links
+        assertThat( matcher.find( "Measures of AIR POLLUTION CONTROL." ), equalTo( new int[] { 0, 1, 2 } ) );
+        assertThat( matcher.find( "Atmospheric pollution and air" ), equalTo( new int[] { 1, 0 } ) );
+        // words must follow each other
+        assertThat( matcher.find( "air and pollution" ), equalTo( new int[] { 0 } ) );
+        assertThat( matcher.find( "samples in situ; wasser" ), equalTo( new int[] { 4, 5 } ) );
+        assertThat( matcher.find( "pollution" ).length, is( 0 ) );
+    }
+
+    @Test
+    void restartsAfterPartialMatch() {
+        // "air air pollution" and "pollution pollution control"
+        assertThat( matcher.find( "air air pollution" ), equalTo( new int[] { 0, 1 } ) );
+        assertThat( matcher.find( "pollution pollution control" ), equalTo( new int[] { 2 } ) );
+    }
+}
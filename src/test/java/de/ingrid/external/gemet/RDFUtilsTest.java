@@ -0,0 +1,59 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import java.io.StringReader;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.jupiter.api.Test;
+
+public class RDFUtilsTest {
+
+    static final String TURTLE = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n"
+            + "@prefix rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> .\n"
+            + "<http://www.eionet.europa.eu/gemet/concept/14848> skos:narrower <http://www.eionet.europa.eu/gemet/concept/5825> .\n"
+            + "<http://www.eionet.europa.eu/gemet/concept/5825> skos:prefLabel \"Off-Site\"@de ; rdf:type skos:Collection .\n"
+            + "<http://www.eionet.europa.eu/gemet/concept/14848> skos:prefLabel \"topic\"@en , \" Thema \"@de ; rdf:type skos:Concept .\n";
+
+    @Test
+    void readsLabelsOfResourceOnly() {
+        Model model = ModelFactory.createDefaultModel();
+        model.read( new StringReader( TURTLE ), null, "TURTLE" );
+
+        Resource thema = model.getResource( "http://www.eionet.europa.eu/gemet/concept/14848" );
+        assertThat( RDFUtils.getName( thema, "de" ), equalTo( "Thema" ) );
+        assertThat( RDFUtils.getName( thema, "en" ), equalTo( "topic" ) );
+        assertThat( RDFUtils.getName( thema, "fr" ), nullValue() );
+        assertThat( RDFUtils.getType( thema ), equalTo( "http://www.w3.org/2004/02/skos/core#Concept" ) );
+
+        Resource offSite = model.getResource( "http://www.eionet.europa.eu/gemet/concept/5825" );
+        assertThat( RDFUtils.getName( offSite, "de" ), equalTo( "Off-Site" ) );
+        assertThat( RDFUtils.getName( offSite, "en" ), nullValue() );
+    }
+}
@@ -0,0 +1,77 @@
+/*-
+ * **************************************************-
+ * ingrid-external-service-gemet
+ * ==================================================
+ * Copyright (C) 2014 - 2024 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.gemet;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local transport answering requests with registered responses, so the client
+ * can be tested without the GEMET service. Requested URLs are recorded.
+ */
+public class StubGEMETTransport implements GEMETTransport {
+
+    private final Map<String, String> responses = new ConcurrentHashMap<String, String>();
+
+    private final List<String> requestedUrls = new CopyOnWriteArrayList<String>();
+
+    /**
+     * Register response for the given request URL. Unknown URLs are answered
+     * like a missing resource (HTTP 404).
+     */
+    public StubGEMETTransport respond(String url, String content) {
+        responses.put( url, content );
+        return this;
+    }
+
+    public List<String> getRequestedUrls() {
+        return requestedUrls;
+    }
+
+    public int getRequestCount() {
+        return requestedUrls.size();
+    }
+
+    @Override
+    public <T> T get(String url, String accept, ResponseReader<T> reader) throws Exception {
+        requestedUrls.add( url );
+
+        String content = responses.get( url );
+        if (content == null) {
+            throw new FileNotFoundException( url );
+        }
+
+        try (InputStream in = new ByteArrayInputStream( content.getBytes( StandardCharsets.UTF_8 ) )) {
+            return reader.read( in );
+        }
+    }
+
+    @Override
+    public void close() {}
+}